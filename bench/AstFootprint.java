@@ -0,0 +1,36 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+// Measures how much heap a parsed program keeps alive once the source and
+// token list are gone: only the statement list is still reachable.
+//
+//   java -cp out lox.AstFootprint program.lox
+class AstFootprint {
+  public static void main(String[] args) throws IOException {
+    String source = new String(Files.readAllBytes(Paths.get(args[0])),
+      StandardCharsets.UTF_8);
+
+    long before = usedHeap();
+    List<Stmt> statements = parse(source);
+    long after = usedHeap();
+
+    System.out.printf("%d statements retain %.1f MB (%.1f bytes per source char)%n",
+      statements.size(), (after - before) / 1e6,
+      (after - before) / (double)source.length());
+  }
+
+  private static List<Stmt> parse(String source) {
+    return new Parser(new Scanner(source).scanTokens()).parse();
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for(int i = 0; i < 5; i++) System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
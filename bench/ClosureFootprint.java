@@ -0,0 +1,44 @@
+package lox;
+
+import java.util.List;
+
+// Measures the heap kept alive by closures made in a loop. Each iteration
+// has a large local array and a small counter; the closure only uses the
+// counter. With flat closures the array becomes garbage at the end of the
+// iteration, so what's left per closure should be the function object, its
+// small capture environment and the shared cell.
+//
+//   java -cp out lox.ClosureFootprint [closures]
+class ClosureFootprint {
+  private static final String PROGRAM =
+    "var closures = array(0);\n" +
+    "for (var i = 0; i < COUNT; i = i + 1) {\n" +
+    "  var big = array(1000);\n" +                                              // Would be retained by a whole-chain closure
+    "  var n = i;\n" +
+    "  fun next() { n = n + 1; return n; }\n" +
+    "  push(closures, next);\n" +
+    "}\n";
+
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    List<Stmt> statements = new Parser(new Scanner(
+      PROGRAM.replace("COUNT", Integer.toString(count))).scanTokens()).parse();
+    new Resolver().resolve(statements);
+    new TypeInference().analyze(statements);
+
+    Interpreter interpreter = new SwitchInterpreter();
+    long before = usedHeap();
+    interpreter.interpret(statements);
+    long after = usedHeap();
+
+    System.out.printf("%d closures retain %.2f MB (%.0f bytes each)%n",
+      count, (after - before) / 1e6, (after - before) / (double)count);
+    if(interpreter.globals.bindings().isEmpty()) System.out.println();          // Keeps the closures reachable until here
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for(int i = 0; i < 5; i++) System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,213 @@
+package lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs every .lox script in the bench directory end to end: read, scan,
+// parse and interpret, each run in a fresh interpreter. Reports runs/sec
+// (from the median run) and allocation per run. With --json the results are
+// also written out. With --baseline they are compared against an earlier
+// JSON file: any script that got slower, or allocates more, by more than the
+// threshold is flagged, and the exit code is 1.
+//
+//   javac -d out lox/*.java bench/*.java
+//   java -cp out lox.Corpus [--json results.json] [--baseline base.json]
+//                           [--threshold percent] [bench dir]
+//
+// bench/baseline.json holds results from one machine. Timings only compare
+// between runs on the same machine, so record a baseline of your own with
+// --json before comparing them.
+//
+// Allocation is read from the JVM's per-thread counter, so it covers the
+// scanner, parser and interpreter on the main thread but not work done on
+// other threads (the parallel scanner for huge sources, module prefetching).
+class Corpus {
+  private static final int WARMUP_RUNS = 3;
+  private static final int TIMED_RUNS = 5;
+
+  private static final Pattern BASELINE_ENTRY = Pattern.compile(
+    "\"([^\"]+\\.lox)\": \\{\"runsPerSecond\": ([0-9.eE+-]+), " +
+    "\"bytesPerRun\": ([0-9]+), \"megabytesPerSecond\": ([0-9.eE+-]+)");
+
+  static class Result {
+    final String script;
+    final double runsPerSecond;
+    final long bytesPerRun;
+    final double megabytesPerSecond;
+
+    Result(String script, double runsPerSecond, long bytesPerRun,
+        double megabytesPerSecond) {
+      this.script = script;
+      this.runsPerSecond = runsPerSecond;
+      this.bytesPerRun = bytesPerRun;
+      this.megabytesPerSecond = megabytesPerSecond;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    String json = null;
+    String baseline = null;
+    double threshold = 10;
+    String dir = "bench";
+    for(int i = 0; i < args.length; i++) {
+      switch(args[i]) {
+        case "--json": json = args[++i]; break;
+        case "--baseline": baseline = args[++i]; break;
+        case "--threshold": threshold = Double.parseDouble(args[++i]); break;
+        default: dir = args[i];
+      }
+    }
+
+    List<Result> results = new ArrayList<>();
+    for(Path script : scripts(Paths.get(dir))) {
+      Result result = run(script);
+      results.add(result);
+      System.out.printf(Locale.ROOT, "%-32s %8.2f runs/s %10.1f MB/run %8.1f MB/s%n",
+        result.script, result.runsPerSecond, result.bytesPerRun / 1e6,
+        result.megabytesPerSecond);
+    }
+
+    if(json != null) {
+      Files.write(Paths.get(json), toJson(results).getBytes(StandardCharsets.UTF_8));
+    }
+
+    if(baseline != null) {
+      String text = new String(Files.readAllBytes(Paths.get(baseline)),
+        StandardCharsets.UTF_8);
+      if(compare(results, readBaseline(text), threshold) > 0) System.exit(1);
+    }
+  }
+
+  private static List<Path> scripts(Path dir) throws IOException {
+    try(Stream<Path> files = Files.list(dir)) {
+      return files.filter(file -> file.toString().endsWith(".lox"))
+        .sorted()
+        .collect(Collectors.toList());
+    }
+  }
+
+  private static Result run(Path script) {
+    com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));             // Scripts print their result; we only want timings
+    try {
+      for(int i = 0; i < WARMUP_RUNS; i++) runOnce(script);
+
+      long[] times = new long[TIMED_RUNS];
+      long allocated = threads.getThreadAllocatedBytes(thread);
+      for(int i = 0; i < TIMED_RUNS; i++) {
+        long start = System.nanoTime();
+        runOnce(script);
+        times[i] = System.nanoTime() - start;
+      }
+      allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+      long total = 0;
+      for(long time : times) total += time;
+      Arrays.sort(times);
+      double median = times[TIMED_RUNS / 2] / 1e9;                              // Less jumpy than the mean when GC lands in one run
+      return new Result(script.getFileName().toString(), 1 / median,
+        allocated / TIMED_RUNS, allocated / 1e6 / (total / 1e9));
+    } catch(IOException error) {
+      throw new RuntimeException(error);
+    } finally {
+      System.setOut(out);
+    }
+  }
+
+  // What `jlox script` does, but in a new interpreter each time, so no
+  // globals or memo tables carry over from the run before, and with errors
+  // thrown instead of exiting.
+  private static void runOnce(Path script) throws IOException {
+    Interpreter interpreter = new SwitchInterpreter();
+    interpreter.setModuleDir(script.toAbsolutePath().getParent());
+    List<Stmt> statements = Lox.compile(Files.readAllBytes(script));
+    if(Lox.hadError) throw new IllegalStateException(script + ": syntax error");
+    interpreter.interpret(statements);
+    if(Lox.hadRuntimeError) {
+      throw new IllegalStateException(script + ": runtime error");
+    }
+  }
+
+  // One script per line, so readBaseline() can get by with a regex.
+  private static String toJson(List<Result> results) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\n");
+    builder.append("  \"java\": \"")
+      .append(System.getProperty("java.version")).append("\",\n");
+    builder.append("  \"warmupRuns\": ").append(WARMUP_RUNS).append(",\n");
+    builder.append("  \"timedRuns\": ").append(TIMED_RUNS).append(",\n");
+    builder.append("  \"scripts\": {\n");
+    for(int i = 0; i < results.size(); i++) {
+      Result result = results.get(i);
+      builder.append(String.format(Locale.ROOT,
+        "    \"%s\": {\"runsPerSecond\": %.4f, \"bytesPerRun\": %d, " +
+        "\"megabytesPerSecond\": %.1f}",
+        result.script, result.runsPerSecond, result.bytesPerRun,
+        result.megabytesPerSecond));
+      builder.append(i < results.size() - 1 ? ",\n" : "\n");
+    }
+    builder.append("  }\n}\n");
+    return builder.toString();
+  }
+
+  private static Map<String, Result> readBaseline(String json) {
+    Map<String, Result> baseline = new HashMap<>();
+    Matcher matcher = BASELINE_ENTRY.matcher(json);
+    while(matcher.find()) {
+      baseline.put(matcher.group(1), new Result(matcher.group(1),
+        Double.parseDouble(matcher.group(2)), Long.parseLong(matcher.group(3)),
+        Double.parseDouble(matcher.group(4))));
+    }
+    return baseline;
+  }
+
+  // Returns the number of regressions: scripts whose runs/sec fell, or
+  // whose allocation per run grew, by more than `threshold` percent.
+  private static int compare(List<Result> results, Map<String, Result> baseline,
+      double threshold) {
+    int regressions = 0;
+    System.out.println();
+    for(Result result : results) {
+      Result before = baseline.get(result.script);
+      if(before == null) {
+        System.out.printf("%-32s (not in baseline)%n", result.script);
+        continue;
+      }
+
+      double speed = change(before.runsPerSecond, result.runsPerSecond);
+      double allocation = change(before.bytesPerRun, result.bytesPerRun);
+      boolean regressed = speed < -threshold || allocation > threshold;
+      if(regressed) regressions++;
+      System.out.printf(Locale.ROOT,
+        "%-32s %+7.1f%% runs/s %+7.1f%% bytes/run%s%n", result.script, speed,
+        allocation, regressed ? "  REGRESSION" : "");
+    }
+    return regressions;
+  }
+
+  // Percent change from `before` to `after`.
+  private static double change(double before, double after) {
+    if(before == 0) return after == 0 ? 0 : Double.POSITIVE_INFINITY;
+    return (after - before) / before * 100;
+  }
+}
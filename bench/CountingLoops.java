@@ -0,0 +1,44 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+// Times the counting loop scripts in this directory through lox.Lox.
+//
+//   javac -d out lox/*.java bench/CountingLoops.java
+//   java -cp out bench.CountingLoops [bench dir]
+//
+// counting_loop.lox and counting_loop_fractional.lox do the same amount of
+// work; the first stays on the integer fast path, the second on doubles.
+public class CountingLoops {
+  private static final String[] SCRIPTS = {
+    "counting_loop.lox",
+    "counting_loop_fractional.lox",
+    "nested_counting_loops.lox"
+  };
+  private static final int WARMUP_RUNS = 3;
+  private static final int TIMED_RUNS = 5;
+
+  public static void main(String[] args) throws IOException {
+    String dir = args.length > 0 ? args[0] : "bench";
+    PrintStream out = System.out;
+    PrintStream silent = new PrintStream(OutputStream.nullOutputStream());
+
+    for(String script : SCRIPTS) {
+      String path = dir + "/" + script;
+      System.setOut(silent);                                                    // Scripts print their result; we only want timings
+      try {
+        for(int i = 0; i < WARMUP_RUNS; i++) lox.Lox.main(new String[] { path });
+
+        long start = System.nanoTime();
+        for(int i = 0; i < TIMED_RUNS; i++) lox.Lox.main(new String[] { path });
+        long elapsed = System.nanoTime() - start;
+
+        out.printf("%-32s %8.1f ms/run%n", script, elapsed / 1e6 / TIMED_RUNS);
+      } finally {
+        System.setOut(out);
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Runs the same programs through the visitor-dispatching Interpreter and the
+// switch-dispatching SwitchInterpreter. Each program is parsed once; every
+// run gets a fresh interpreter so globals don't carry over. Before timing a
+// program, both interpreters run it once and must print the same output;
+// --check stops there.
+//
+//   java -cp out lox.DispatchBenchmark [--check] bench/*.lox
+class DispatchBenchmark {
+  private static final int WARMUP_RUNS = 3;
+  private static final int TIMED_RUNS = 5;
+
+  public static void main(String[] args) throws IOException {
+    PrintStream out = System.out;
+    PrintStream silent = new PrintStream(OutputStream.nullOutputStream());
+    boolean checkOnly = args.length > 0 && args[0].equals("--check");
+
+    for(String path : args) {
+      if(path.equals("--check")) continue;
+      String source = new String(Files.readAllBytes(Paths.get(path)),
+        StandardCharsets.UTF_8);
+      List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+      new Resolver().resolve(statements);
+      new TypeInference().analyze(statements);
+
+      String expected = output(Interpreter::new, statements);
+      String actual = output(SwitchInterpreter::new, statements);
+      if(!expected.equals(actual)) {
+        throw new AssertionError(path + ": the interpreters' output differs");
+      }
+      if(checkOnly) continue;
+
+      System.setOut(silent);
+      try {
+        double tagged = time(SwitchInterpreter::new, statements);
+        double visitor = time(Interpreter::new, statements);
+        out.printf("%-40s visitor %8.1f ms  switch %8.1f ms%n",
+          path, visitor, tagged);
+      } finally {
+        System.setOut(out);
+      }
+    }
+  }
+
+  private static String output(Supplier<Interpreter> interpreters,
+      List<Stmt> statements) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+    try {
+      interpreters.get().interpret(statements);
+    } finally {
+      System.setOut(out);
+    }
+    return captured.toString(StandardCharsets.UTF_8);
+  }
+
+  private static double time(Supplier<Interpreter> interpreters,
+      List<Stmt> statements) {
+    for(int i = 0; i < WARMUP_RUNS; i++) interpreters.get().interpret(statements);
+
+    long start = System.nanoTime();
+    for(int i = 0; i < TIMED_RUNS; i++) interpreters.get().interpret(statements);
+    return (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+  }
+}
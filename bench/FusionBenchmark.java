@@ -0,0 +1,79 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+// Runs each program as parsed and again after Fusion has replaced its loop
+// patterns with fused nodes, both on the SwitchInterpreter. Every run gets a
+// fresh interpreter so globals don't carry over. Before timing a program,
+// both versions run it once and must print the same output; --check stops
+// there.
+//
+//   java -cp out lox.FusionBenchmark [--check] bench/*.lox
+class FusionBenchmark {
+  private static final int WARMUP_RUNS = 3;
+  private static final int TIMED_RUNS = 5;
+
+  public static void main(String[] args) throws IOException {
+    PrintStream out = System.out;
+    PrintStream silent = new PrintStream(OutputStream.nullOutputStream());
+    boolean checkOnly = args.length > 0 && args[0].equals("--check");
+
+    for(String path : args) {
+      if(path.equals("--check")) continue;
+      String source = new String(Files.readAllBytes(Paths.get(path)),
+        StandardCharsets.UTF_8);
+      List<Stmt> plain = compile(source, false);
+      List<Stmt> fused = compile(source, true);
+
+      if(!output(plain).equals(output(fused))) {
+        throw new AssertionError(path + ": fusing changes the output");
+      }
+      if(checkOnly) continue;
+
+      System.setOut(silent);
+      try {
+        double before = time(plain);
+        double after = time(fused);
+        out.printf("%-40s plain %8.1f ms  fused %8.1f ms  (%.2fx)%n",
+          path, before, after, before / after);
+      } finally {
+        System.setOut(out);
+      }
+    }
+  }
+
+  private static List<Stmt> compile(String source, boolean fuse) {
+    List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+    if(fuse) statements = new Fusion().fuse(statements);
+    new Resolver().resolve(statements);
+    new TypeInference().analyze(statements);
+    return statements;
+  }
+
+  private static String output(List<Stmt> statements) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+    try {
+      new SwitchInterpreter().interpret(statements);
+    } finally {
+      System.setOut(out);
+    }
+    return captured.toString(StandardCharsets.UTF_8);
+  }
+
+  private static double time(List<Stmt> statements) {
+    for(int i = 0; i < WARMUP_RUNS; i++) new SwitchInterpreter().interpret(statements);
+
+    long start = System.nanoTime();
+    for(int i = 0; i < TIMED_RUNS; i++) new SwitchInterpreter().interpret(statements);
+    return (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+  }
+}
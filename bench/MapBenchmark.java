@@ -0,0 +1,157 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Compares LoxMap against a java.util.HashMap baseline for number and string
+// keys. The HashMap side uses boxed Double keys, which is what a Lox map
+// built on it would have to do to make 1 and 1.0 the same key. Lookups go in
+// a shuffled order; reading keys in insertion order would mostly measure how
+// well HashMap's nodes happen to sit in memory.
+//
+// Before timing, both maps get the same puts and removes with number and
+// string keys and must then agree on every lookup; --check stops there.
+//
+//   java -cp out lox.MapBenchmark [--check]
+class MapBenchmark {
+  private static final int KEYS = 1 << 20;
+  private static final int ROUNDS = 10;
+  private static final int[] order = new int[KEYS];
+
+  static {
+    for(int i = 0; i < KEYS; i++) order[i] = i;
+  }
+
+  public static void main(String[] args) {
+    String[] strings = new String[KEYS];
+    for(int i = 0; i < KEYS; i++) strings[i] = "key" + i;
+    check();
+    if(args.length > 0 && args[0].equals("--check")) return;
+
+    Random random = new Random(42);
+    for(int i = KEYS - 1; i > 0; i--) {                                         // Shuffle the lookup order
+      int j = random.nextInt(i + 1);
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+
+    for(int round = 0; round < ROUNDS; round++) {
+      boolean report = round >= ROUNDS / 2;                                     // First half is warm-up
+
+      long loxNumbers = time(() -> loxNumbers());
+      long javaNumbers = time(() -> javaNumbers());
+      long loxStrings = time(() -> loxStrings(strings));
+      long javaStrings = time(() -> javaStrings(strings));
+
+      if(report) {
+        System.out.printf("numbers: LoxMap %6.1f ms  HashMap %6.1f ms%n",
+          loxNumbers / 1e6, javaNumbers / 1e6);
+        System.out.printf("strings: LoxMap %6.1f ms  HashMap %6.1f ms%n",
+          loxStrings / 1e6, javaStrings / 1e6);
+      }
+    }
+  }
+
+  // Mixes long, double and string keys, including 1 and 1.0, which LoxMap
+  // treats as one key and HashMap only does once they are Doubles.
+  private static void check() {
+    LoxMap lox = new LoxMap();
+    Map<Object, Object> java = new HashMap<>();
+    Random random = new Random(7);
+    for(int i = 0; i < 100_000; i++) {
+      Object key = randomKey(random);
+      Object value = (long)i;
+      if(random.nextInt(4) == 0) {
+        agree(key, lox.remove(key), java.remove(javaKey(key)));
+      } else {
+        lox.put(key, value);
+        java.put(javaKey(key), value);
+      }
+    }
+    if(lox.size() != java.size()) {
+      throw new AssertionError(lox.size() + " entries, not " + java.size());
+    }
+    for(int i = 0; i < 100_000; i++) {
+      Object key = randomKey(random);
+      agree(key, lox.get(key), java.get(javaKey(key)));
+      if(lox.has(key) != java.containsKey(javaKey(key))) {
+        throw new AssertionError("has(" + key + ") differs");
+      }
+    }
+  }
+
+  private static Object randomKey(Random random) {
+    int n = random.nextInt(5000);
+    switch(random.nextInt(3)) {
+      case 0:  return (long)n;
+      case 1:  return (double)n;
+      default: return "key" + n;
+    }
+  }
+
+  private static Object javaKey(Object key) {
+    return key instanceof Long ? (Object)(double)(long)key : key;
+  }
+
+  private static void agree(Object key, Object lox, Object java) {
+    if(lox == null ? java != null : !lox.equals(java)) {
+      throw new AssertionError("key " + key + ": LoxMap has " + lox +
+        ", HashMap has " + java);
+    }
+  }
+
+  private static long time(Runnable body) {
+    long start = System.nanoTime();
+    body.run();
+    return System.nanoTime() - start;
+  }
+
+  // Each workload puts every key, reads every key twice and removes half.
+  private static void loxNumbers() {
+    LoxMap map = new LoxMap();
+    for(long i = 0; i < KEYS; i++) map.put(i, i);
+    long sum = 0;
+    for(long i = 0; i < KEYS * 2L; i++) {
+      Object value = map.get((long)order[(int)(i % KEYS)]);
+      sum += (long)value;
+    }
+    for(long i = 0; i < KEYS; i += 2) map.remove(i);
+    if(sum == 42) System.out.println();                                         // Keeps the loop from being optimized away
+  }
+
+  private static void javaNumbers() {
+    Map<Object, Object> map = new HashMap<>();
+    for(long i = 0; i < KEYS; i++) map.put((double)i, i);
+    long sum = 0;
+    for(long i = 0; i < KEYS * 2L; i++) {
+      Object value = map.get((double)order[(int)(i % KEYS)]);
+      sum += (long)value;
+    }
+    for(long i = 0; i < KEYS; i += 2) map.remove((double)i);
+    if(sum == 42) System.out.println();
+  }
+
+  private static void loxStrings(String[] strings) {
+    LoxMap map = new LoxMap();
+    for(int i = 0; i < KEYS; i++) map.put(strings[i], strings[i]);
+    int found = 0;
+    for(int i = 0; i < KEYS * 2; i++) {
+      if(map.get(strings[order[i % KEYS]]) != null) found++;
+    }
+    for(int i = 0; i < KEYS; i += 2) map.remove(strings[i]);
+    if(found == 42) System.out.println();
+  }
+
+  private static void javaStrings(String[] strings) {
+    Map<Object, Object> map = new HashMap<>();
+    for(int i = 0; i < KEYS; i++) map.put(strings[i], strings[i]);
+    int found = 0;
+    for(int i = 0; i < KEYS * 2; i++) {
+      if(map.get(strings[order[i % KEYS]]) != null) found++;
+    }
+    for(int i = 0; i < KEYS; i += 2) map.remove(strings[i]);
+    if(found == 42) System.out.println();
+  }
+}
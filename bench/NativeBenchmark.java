@@ -0,0 +1,98 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compares the cost of calling sqrt() directly from Java, through a
+// hand-written NativeFunction and through the MethodHandle NativeRegistry
+// binds for MathNatives.sqrt. The two natives are called the way the
+// interpreter calls them: with a boxed argument list, returning a boxed
+// Lox value. Before timing, all three must give the same results, and both
+// natives must reject a non-number the same way; --check stops there.
+//
+//   java -cp out lox.NativeBenchmark [--check]
+class NativeBenchmark {
+  private static final int CALLS = 10_000_000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    Interpreter interpreter = new Interpreter();
+    NativeFunction handWritten = new NativeFunction("sqrt", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object x = arguments.get(0);
+        if(!Numbers.isNumber(x)) {
+          throw new RuntimeError("Argument 1 must be a number.");
+        }
+        return Numbers.valueOf(MathNatives.sqrt(Numbers.toDouble(x)));
+      }
+    };
+    NativeFunction bound = NativeRegistry.bind(
+      MathNatives.class.getDeclaredMethod("sqrt", double.class));
+
+    List<List<Object>> arguments = new ArrayList<>();                           // Boxed once, as the interpreter has them
+    for(long i = 0; i < 1024; i++) arguments.add(List.of(i * 3 + 0.5));
+    check(interpreter, handWritten, bound, arguments);
+    if(args.length > 0 && args[0].equals("--check")) return;
+
+    for(int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      double sum = 0;
+      for(int i = 0; i < CALLS; i++) {
+        sum += MathNatives.sqrt((double)arguments.get(i & 1023).get(0));
+      }
+      double direct = (System.nanoTime() - start) / (double)CALLS;
+
+      start = System.nanoTime();
+      for(int i = 0; i < CALLS; i++) {
+        sum += (double)handWritten.call(interpreter, arguments.get(i & 1023));
+      }
+      double manual = (System.nanoTime() - start) / (double)CALLS;
+
+      start = System.nanoTime();
+      for(int i = 0; i < CALLS; i++) {
+        sum += (double)bound.call(interpreter, arguments.get(i & 1023));
+      }
+      double handle = (System.nanoTime() - start) / (double)CALLS;
+
+      System.out.printf(
+        "direct %6.2f ns  hand-written %6.2f ns  registry %6.2f ns  (%.0f)%n",
+        direct, manual, handle, sum);
+    }
+  }
+
+  private static void check(Interpreter interpreter, NativeFunction handWritten,
+      NativeFunction bound, List<List<Object>> arguments) {
+    List<List<Object>> all = new ArrayList<>(arguments);
+    all.add(List.of(16L));                                                      // Integral results come back as Longs
+    all.add(List.of(-1.0));
+    for(List<Object> argument : all) {
+      Object direct = Numbers.valueOf(
+        MathNatives.sqrt(Numbers.toDouble(argument.get(0))));
+      Object manual = handWritten.call(interpreter, argument);
+      Object handle = bound.call(interpreter, argument);
+      if(!direct.equals(manual) || !direct.equals(handle)) {
+        throw new AssertionError("sqrt(" + argument.get(0) + ") is " + direct +
+          ", hand-written gives " + manual + ", registry gives " + handle);
+      }
+    }
+
+    String manual = error(handWritten, interpreter);
+    String handle = error(bound, interpreter);
+    if(!manual.equals(handle)) {
+      throw new AssertionError("For a string argument the hand-written " +
+        "native says \"" + manual + "\" and the registry's says \"" + handle +
+        "\"");
+    }
+  }
+
+  private static String error(NativeFunction function,
+      Interpreter interpreter) {
+    try {
+      function.call(interpreter, List.of("four"));
+    } catch(RuntimeError error) {
+      return error.getMessage();
+    }
+    throw new AssertionError(function + " accepted a string");
+  }
+}
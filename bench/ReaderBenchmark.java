@@ -0,0 +1,92 @@
+package lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Reads a file line by line with LoxReader (what readLine() uses) and with a
+// plain BufferedReader, and prints the throughput of each. Both sides build
+// every line as a String so the comparison is like for like. Before timing,
+// both read the file once and must return the same lines; --check stops
+// there. (BufferedReader also ends a line at a lone '\r' and LoxReader
+// doesn't, so only files with \n or \r\n line ends pass.)
+//
+//   java -cp out lox.ReaderBenchmark [--check] data.txt
+class ReaderBenchmark {
+  private static final int ROUNDS = 6;
+
+  public static void main(String[] args) throws IOException {
+    boolean checkOnly = args.length == 2 && args[0].equals("--check");
+    if(args.length != 1 && !checkOnly) {
+      System.out.println("Usage: ReaderBenchmark [--check] file");
+      System.exit(64);
+    }
+    Path path = Paths.get(args[args.length - 1]);
+    check(path);
+    if(checkOnly) return;
+
+    double megabytes = Files.size(path) / 1e6;
+
+    for(int round = 0; round < ROUNDS; round++) {
+      boolean report = round >= ROUNDS / 2;                                     // First half is warm-up
+
+      long start = System.nanoTime();
+      long loxChars = loxReader(path);
+      long lox = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long javaChars = bufferedReader(path);
+      long java = System.nanoTime() - start;
+
+      if(loxChars != javaChars) throw new AssertionError("Readers disagree");
+      if(report) {
+        System.out.printf("LoxReader %7.1f MB/s  BufferedReader %7.1f MB/s%n",
+          megabytes / (lox / 1e9), megabytes / (java / 1e9));
+      }
+    }
+  }
+
+  private static void check(Path path) throws IOException {
+    LoxReader lox = new LoxReader(path);
+    try(BufferedReader java =
+        Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      for(int line = 1; ; line++) {
+        String expected = java.readLine();
+        String actual = lox.readLine();
+        if(expected == null ? actual != null : !expected.equals(actual)) {
+          throw new AssertionError(path + ": line " + line + " is " + actual +
+            ", not " + expected);
+        }
+        if(expected == null) break;
+      }
+    } finally {
+      lox.close();
+    }
+  }
+
+  private static long loxReader(Path path) throws IOException {
+    LoxReader reader = new LoxReader(path);
+    long chars = 0;
+    try {
+      for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+        chars += line.length();
+      }
+    } finally {
+      reader.close();
+    }
+    return chars;
+  }
+
+  private static long bufferedReader(Path path) throws IOException {
+    long chars = 0;
+    try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+        chars += line.length();
+      }
+    }
+    return chars;
+  }
+}
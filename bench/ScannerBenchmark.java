@@ -0,0 +1,97 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+// Scans each file with Scanner (after decoding it, as Lox had to) and with
+// ByteScanner, checks that both give the same tokens and errors, and prints
+// the best throughput of each. Files are repeated until they are a few MB, so
+// small scripts still make a useful benchmark. --check only compares the
+// tokens.
+//
+//   java -cp out lox.ScannerBenchmark [--check] bench/*.lox
+class ScannerBenchmark {
+  private static final int MIN_SIZE = 8 << 20;
+  private static final int ROUNDS = 10;
+
+  public static void main(String[] args) throws IOException {
+    boolean checkOnly = args.length > 0 && args[0].equals("--check");
+    for(String path : args) {
+      if(path.equals("--check")) continue;
+      byte[] bytes = repeat(Files.readAllBytes(Paths.get(path)));
+      double megabytes = bytes.length / 1e6;
+      check(path, bytes);
+      if(checkOnly) continue;
+
+      long scanner = Long.MAX_VALUE;                                            // Best of the timed rounds
+      long byteScanner = Long.MAX_VALUE;
+      for(int round = 0; round < ROUNDS; round++) {
+        System.gc();                                                            // Both sides allocate a token per lexeme
+        long start = System.nanoTime();
+        String source = new String(bytes, StandardCharsets.UTF_8);
+        new Scanner(source).scanTokens(new ArrayList<>());
+        long time = System.nanoTime() - start;
+        if(round >= ROUNDS / 2) scanner = Math.min(scanner, time);              // First half is warm-up
+
+        System.gc();
+        start = System.nanoTime();
+        new ByteScanner(bytes).scanTokens(new ArrayList<>());
+        time = System.nanoTime() - start;
+        if(round >= ROUNDS / 2) byteScanner = Math.min(byteScanner, time);
+      }
+      System.out.printf("%-36s Scanner %7.1f MB/s  ByteScanner %7.1f MB/s%n",
+        path, megabytes / (scanner / 1e9), megabytes / (byteScanner / 1e9));
+    }
+  }
+
+  private static byte[] repeat(byte[] bytes) {
+    if(bytes.length == 0) return bytes;
+    ByteArrayOutputStream out =
+      new ByteArrayOutputStream(MIN_SIZE + bytes.length + 1);
+    while(out.size() < MIN_SIZE) {
+      out.write(bytes, 0, bytes.length);
+      out.write('\n');                                                          // In case the file doesn't end with one
+    }
+    return out.toByteArray();
+  }
+
+  private static void check(String path, byte[] bytes) {
+    List<Scanner.ScanError> expectedErrors = new ArrayList<>();
+    List<Token> expected =
+      new Scanner(new String(bytes, StandardCharsets.UTF_8))
+        .scanTokens(expectedErrors);
+    List<Scanner.ScanError> actualErrors = new ArrayList<>();
+    List<Token> actual = new ByteScanner(bytes).scanTokens(actualErrors);
+
+    if(expected.size() != actual.size()) {
+      throw new AssertionError(path + ": " + expected.size() + " tokens, not " +
+        actual.size());
+    }
+    for(int i = 0; i < expected.size(); i++) {
+      Token a = expected.get(i);
+      Token b = actual.get(i);
+      if(a.type != b.type || !a.lexeme.equals(b.lexeme) || a.line != b.line ||
+          !Objects.equals(a.literal, b.literal)) {
+        throw new AssertionError(path + ": token " + i + " is " + b +
+          " on line " + b.line + ", not " + a + " on line " + a.line);
+      }
+    }
+    if(expectedErrors.size() != actualErrors.size()) {
+      throw new AssertionError(path + ": " + expectedErrors.size() +
+        " errors, not " + actualErrors.size());
+    }
+    for(int i = 0; i < expectedErrors.size(); i++) {
+      Scanner.ScanError a = expectedErrors.get(i);
+      Scanner.ScanError b = actualErrors.get(i);
+      if(a.line != b.line || !a.message.equals(b.message)) {
+        throw new AssertionError(path + ": error " + i + " differs");
+      }
+    }
+  }
+}
@@ -0,0 +1,22 @@
+#!/bin/sh
+# Runs each benchmark's parity check: the two implementations it compares
+# must give the same results. Nothing is timed. The benchmarks are in the
+# lox package so they can reach its internals without widening them. Run
+# from the repository root:
+#
+#   bench/parity.sh
+set -e
+
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -d "$out" lox/*.java bench/*.java
+
+java -cp "$out" lox.MapBenchmark --check
+java -cp "$out" lox.DispatchBenchmark --check bench/*.lox
+java -cp "$out" lox.FusionBenchmark --check bench/*.lox
+java -cp "$out" lox.NativeBenchmark --check
+java -cp "$out" lox.ScannerBenchmark --check bench/*.lox
+for file in bench/*.lox; do
+  java -cp "$out" lox.ReaderBenchmark --check "$file"
+done
+echo "parity ok"
@@ -0,0 +1,112 @@
+package lox;
+
+import java.util.List;
+
+// Native functions for working with LoxArray values. The bulk operations
+// (fill, copy, sort) run entirely in Java on the array's backing storage.
+class ArrayNatives {
+  private ArrayNatives() {}
+
+  static void define(Environment globals) {
+    new NativeFunction("array", 1) {                                            // array(length) -> `length` zeros
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object length = Numbers.integral(arguments.get(0));
+        if(!(length instanceof Long) || (long)length < 0 ||
+            (long)length > Integer.MAX_VALUE - 8) {
+          throw new RuntimeError("Array length must be a non-negative integer.");
+        }
+        charge(interpreter, LoxArray.footprint((int)(long)length));
+        LoxArray array = new LoxArray((int)(long)length);
+        array.owner = interpreter.owner();
+        return array;
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("len", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return (long)checkArray(arguments.get(0)).size();
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("push", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxArray array = checkWritable(interpreter, arguments.get(0));
+        Object value = arguments.get(1);
+        charge(interpreter, array.footprintWith(value, array.size() + 1) -
+          array.footprint() + MemoryAccount.sizeOf(value));
+        array.add(value);
+        return null;
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("pop", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxArray array = checkWritable(interpreter, arguments.get(0));
+        if(array.size() == 0) throw new RuntimeError("Can't pop from an empty array.");
+        Object value = array.removeLast();
+        interpreter.memory.release(MemoryAccount.sizeOf(value));
+        return value;
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("fill", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxArray array = checkWritable(interpreter, arguments.get(0));
+        Object value = arguments.get(1);
+        charge(interpreter, array.footprintWith(value, array.size()) -
+          array.footprint() + array.size() * MemoryAccount.sizeOf(value) -
+          array.payload());                                                     // Every element holds the string
+        array.fill(value);
+        return null;
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("copy", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxArray array = checkArray(arguments.get(0));
+        charge(interpreter, array.copyFootprint() + array.payload());
+        LoxArray copy = array.copy();
+        copy.owner = interpreter.owner();
+        return copy;
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("sort", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        if(!checkWritable(interpreter, arguments.get(0)).sort()) {
+          throw new RuntimeError("Can only sort arrays of numbers or of strings.");
+        }
+        return null;
+      }
+    }.pure().defineIn(globals);
+  }
+
+  // Collections stay charged for the rest of the run; see MemoryAccount.
+  // Callers work out the bytes before allocating or storing anything, so a
+  // call that would go over the quota fails with the array untouched.
+  static void charge(Interpreter interpreter, long bytes) {
+    interpreter.memory.allocate(bytes, RuntimeError.NO_LINE);                   // The call site fills in the line
+  }
+
+  private static LoxArray checkArray(Object value) {
+    if(value instanceof LoxArray) return (LoxArray)value;
+    throw new RuntimeError("Argument must be an array.");
+  }
+
+  // Like checkArray(), for natives that change the array.
+  private static LoxArray checkWritable(Interpreter interpreter, Object value) {
+    LoxArray array = checkArray(value);
+    if(!interpreter.mayChange(array.owner)) {
+      throw new RuntimeError(
+        "Can't change an array a parallel callable didn't create.");
+    }
+    return array;
+  }
+}
@@ -5,9 +5,41 @@ class AstPrinter implements Expr.Visitor<String> {
     return expr.accept(this);
   }
 
+  @Override
+  public String visitAssignExpr(Expr.Assign expr) {
+    return parenthesize("= " + expr.name, expr.value);
+  }
+
   @Override
   public String visitBinaryExpr(Expr.Binary expr) {
-    return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    return parenthesize(symbol(expr.operator), expr.left, expr.right);
+  }
+
+  @Override
+  public String visitCallExpr(Expr.Call expr) {
+    Expr[] parts = new Expr[expr.arguments.size() + 1];
+    parts[0] = expr.callee;
+    for(int i = 0; i < expr.arguments.size(); i++) {
+      parts[i + 1] = expr.arguments.get(i);
+    }
+    return parenthesize("call", parts);
+  }
+
+  @Override
+  public String visitCompareExpr(Expr.Compare expr) {
+    String right = expr.other != null ? expr.other : literal(expr.constant);
+    return "(" + symbol(expr.operator) + " " + expr.name + " " + right + ")";
+  }
+
+  @Override
+  public String visitCompoundExpr(Expr.Compound expr) {
+    return "(= " + expr.name + " " +
+      parenthesize(symbol(expr.operator) + " " + expr.name, expr.value) + ")";
+  }
+
+  @Override
+  public String visitGetExpr(Expr.Get expr) {
+    return parenthesize(". " + expr.name, expr.object);
   }
 
   @Override
@@ -15,15 +47,60 @@ class AstPrinter implements Expr.Visitor<String> {
     return parenthesize("group", expr.expression);
   }
 
+  @Override
+  public String visitIncrementExpr(Expr.Increment expr) {
+    return "(= " + expr.name + " (" + symbol(expr.operator) + " " +
+      expr.name + " " + literal(expr.amount) + "))";
+  }
+
+  @Override
+  public String visitIndexExpr(Expr.Index expr) {
+    return parenthesize("[]", expr.object, expr.index);
+  }
+
   @Override
   public String visitLiteralExpr(Expr.Literal expr) {
-    if(expr.value == null) return "nil";
-    return expr.value.toString();
+    return literal(expr.value);
+  }
+
+  @Override
+  public String visitLogicalExpr(Expr.Logical expr) {
+    return parenthesize(symbol(expr.operator), expr.left, expr.right);
+  }
+
+  @Override
+  public String visitSetExpr(Expr.Set expr) {
+    return parenthesize("=. " + expr.name, expr.object, expr.value);
+  }
+
+  @Override
+  public String visitSetIndexExpr(Expr.SetIndex expr) {
+    return parenthesize("=[]", expr.object, expr.index, expr.value);
+  }
+
+  @Override
+  public String visitSuperExpr(Expr.Super expr) {
+    return "(super " + expr.method + ")";
+  }
+
+  @Override
+  public String visitThisExpr(Expr.This expr) {
+    return "this";
+  }
+
+  @Override
+  public String visitTracedCallExpr(Expr.TracedCall expr) {
+    return expr.call.accept(this);
   }
 
   @Override
   public String visitUnaryExpr(Expr.Unary expr) {
-    return parenthesize(expr.operator.lexeme, expr.right);
+    return parenthesize(symbol(expr.operator), expr.right);
+  }
+
+  @Override
+  public String visitVariableExpr(Expr.Variable expr) {
+    return expr.name;
   }
 
   private String parenthesize(String name, Expr... exprs) {
@@ -39,12 +116,36 @@ class AstPrinter implements Expr.Visitor<String> {
     return builder.toString();
   }
 
+  private static String literal(Object value) {
+    if(value == null) return "nil";
+    if(value instanceof String) return "\"" + value + "\"";
+    return Interpreter.stringify(value);
+  }
+
+  // Nodes keep the operator's type rather than its token, so spell it out.
+  private static String symbol(TokenType operator) {
+    switch(operator) {
+      case BANG:          return "!";
+      case BANG_EQUAL:    return "!=";
+      case EQUAL_EQUAL:   return "==";
+      case GREATER:       return ">";
+      case GREATER_EQUAL: return ">=";
+      case LESS:          return "<";
+      case LESS_EQUAL:    return "<=";
+      case MINUS:         return "-";
+      case PLUS:          return "+";
+      case SLASH:         return "/";
+      case STAR:          return "*";
+      case AND:           return "and";
+      case OR:            return "or";
+      default:            return operator.toString();
+    }
+  }
+
   public static void main(String[] args) {
     Expr expression = new Expr.Binary(
-      new Expr.Unary(
-        new Token(TokenType.MINUS, "-", null, 1), 
-        new Expr.Literal(123)), 
-      new Token(TokenType.STAR, "*", null, 1), 
+      new Expr.Unary(TokenType.MINUS, 1, new Expr.Literal(123L)),
+      TokenType.STAR, 1,
       new Expr.Grouping(new Expr.Literal(45.67)));
 
     System.out.println(new AstPrinter().print(expression));
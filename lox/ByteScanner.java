@@ -0,0 +1,305 @@
+package lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static lox.TokenType.*;
+
+// Scanner over UTF-8 bytes, for big files that would otherwise have to be
+// decoded into a String first. It produces exactly the tokens, lines and
+// errors Scanner does for the decoded text.
+//
+// Everything Lox treats specially is ASCII, and in UTF-8 no byte of a
+// multi-byte character is, so runs of bytes can be skipped without decoding
+// them. The long runs (whitespace, comment bodies, string bodies and
+// identifiers) are skipped eight bytes at a time with SWAR: each step reads
+// a little-endian long and works out, for all eight bytes at once, which of
+// them end the run. Only string literals are actually decoded as UTF-8; all
+// other lexemes are ASCII.
+class ByteScanner {
+  private static final VarHandle WORDS =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final long ONES = 0x0101010101010101L;                         // Times a byte, that byte in every lane
+  private static final long HIGHS = 0x8080808080808080L;
+  private static final long LOWS = 0x7f7f7f7f7f7f7f7fL;
+
+  private final byte[] source;
+  private final int end;                                                        // Scanning stops at this index (exclusive)
+  private final List<Token> tokens = new ArrayList<>();
+  private int start = 0;                                                        // Tracks first byte in lexeme
+  private int current = 0;                                                      // Tracks current byte
+  private int line = 1;                                                         // Tracks which source line `current` is on
+  private List<Scanner.ScanError> deferredErrors = null;                        // See Scanner
+
+  ByteScanner(byte[] source) {
+    this(source, 0, source.length, 1);
+  }
+
+  // Scans only source[from, to), numbering lines starting at `line`. The range
+  // must begin and end outside of any string literal or comment.
+  ByteScanner(byte[] source, int from, int to, int line) {
+    this.source = source;
+    this.end = to;
+    this.start = from;
+    this.current = from;
+    this.line = line;
+  }
+
+  List<Token> scanTokens() {
+    scanRange();
+    tokens.add(new Token(EOF, "", null, line));
+    return tokens;
+  }
+
+  // Like scanTokens(), but errors are collected for the caller to report.
+  List<Token> scanTokens(List<Scanner.ScanError> errors) {
+    deferredErrors = errors;
+    return scanTokens();
+  }
+
+  // Scans the range without appending EOF and collects errors instead of
+  // reporting them, so that chunks can be stitched together afterwards.
+  List<Token> scanChunk(List<Scanner.ScanError> errors) {
+    deferredErrors = errors;
+    scanRange();
+    return tokens;
+  }
+
+  private void scanRange() {
+    while(current < end) {
+      start = current;
+      scanToken();
+    }
+  }
+
+  private void scanToken() {
+    byte c = source[current++];
+    switch(c) {
+      case '(': addToken(LEFT_PAREN); break;
+      case ')': addToken(RIGHT_PAREN); break;
+      case '{': addToken(LEFT_BRACE); break;
+      case '}': addToken(RIGHT_BRACE); break;
+      case '[': addToken(LEFT_BRACKET); break;
+      case ']': addToken(RIGHT_BRACKET); break;
+      case ',': addToken(COMMA); break;
+      case '.': addToken(DOT); break;
+      case '-': addToken(MINUS); break;
+      case '+': addToken(PLUS); break;
+      case ';': addToken(SEMICOLON); break;
+      case '*': addToken(STAR); break;
+      case '!':
+        addToken(match('=') ? BANG_EQUAL : BANG);
+        break;
+      case '=':
+        addToken(match('=') ? EQUAL_EQUAL : EQUAL);
+        break;
+      case '<':
+        addToken(match('=') ? LESS_EQUAL : LESS);
+        break;
+      case '>':
+        addToken(match('=') ? GREATER_EQUAL : GREATER);
+        break;
+      case '/':
+        if(match('/')) {
+          current = indexOfNewline(current);                                    // The newline itself is whitespace
+        } else {
+          addToken(SLASH);
+        }
+        break;
+
+      case ' ':
+      case '\r':
+      case '\t':
+      case '\n':
+        current = skipWhitespace(current - 1);
+        break;
+
+      case '"': string(); break;
+
+      default:
+        if(c >= '0' && c <= '9') {
+          number();
+        } else if(isAlpha(c)) {
+          current = skipIdentifier(current);
+          String text = ascii(start, current);
+          TokenType type = Scanner.keywords.get(text);
+          if(type == null) type = IDENTIFIER;
+          tokens.add(new Token(type, text, null, line));
+        } else if(c < 0) {
+          unexpectedCharacters();
+        } else {
+          error("Unexpected character.");
+        }
+        break;
+    }
+  }
+
+  private void number() {
+    long value = source[start] - '0';
+    while(current < end && isDigit(source[current])) {
+      value = value * 10 + (source[current++] - '0');                           // Only trusted below 16 digits
+    }
+    boolean fraction = current + 1 < end && source[current] == '.' &&
+      isDigit(source[current + 1]);
+    if(fraction) {
+      current++;
+      while(current < end && isDigit(source[current])) current++;
+    }
+
+    String text = ascii(start, current);
+    Object literal;
+    if(!fraction && current - start < 16) {
+      literal = Numbers.valueOf(value);                                         // What parseDouble() would have given
+    } else {
+      literal = Numbers.valueOf(Double.parseDouble(text));
+    }
+    tokens.add(new Token(NUMBER, text, literal, line));
+  }
+
+  private void string() {
+    for(;;) {
+      int stop = indexOfQuoteOrNewline(current);
+      if(stop == end) {
+        current = end;
+        error("Unterminated string.");
+        return;
+      }
+      current = stop + 1;
+      if(source[stop] == '"') break;
+      line++;
+    }
+
+    String value = new String(source, start + 1, current - start - 2,
+      StandardCharsets.UTF_8);
+    tokens.add(new Token(STRING, "\"" + value + "\"", value, line));
+  }
+
+  // Scanner reports each UTF-16 char it doesn't expect, so decode the run of
+  // non-ASCII bytes to find out how many that is.
+  private void unexpectedCharacters() {
+    while(current < end && source[current] < 0) current++;
+    int chars = new String(source, start, current - start,
+      StandardCharsets.UTF_8).length();
+    for(int i = 0; i < chars; i++) error("Unexpected character.");
+  }
+
+  private boolean match(char expected) {
+    if(current >= end || source[current] != expected) return false;
+    current++;
+    return true;
+  }
+
+  private int indexOfNewline(int from) {
+    for(; from + 8 <= end; from += 8) {
+      long found = zeroBytes(word(from) ^ ONES * '\n');
+      if(found != 0) return from + lane(found);
+    }
+    while(from < end && source[from] != '\n') from++;
+    return from;
+  }
+
+  private int indexOfQuoteOrNewline(int from) {
+    for(; from + 8 <= end; from += 8) {
+      long word = word(from);
+      long found = zeroBytes(word ^ ONES * '"') | zeroBytes(word ^ ONES * '\n');
+      if(found != 0) return from + lane(found);
+    }
+    while(from < end && source[from] != '"' && source[from] != '\n') from++;
+    return from;
+  }
+
+  // Skips spaces, tabs, carriage returns and newlines, counting the newlines.
+  private int skipWhitespace(int from) {
+    for(; from + 8 <= end; from += 8) {
+      long word = word(from);
+      long newlines = zeroBytes(word ^ ONES * '\n');
+      long blank = newlines | zeroBytes(word ^ ONES * ' ') |
+        zeroBytes(word ^ ONES * '\t') | zeroBytes(word ^ ONES * '\r');
+      long other = ~blank & HIGHS;
+      if(other != 0) {
+        int lane = lane(other);
+        line += Long.bitCount(newlines & ((1L << (lane * 8)) - 1));             // Newlines ahead of the first other byte
+        return from + lane;
+      }
+      line += Long.bitCount(newlines);
+    }
+    for(; from < end; from++) {
+      byte c = source[from];
+      if(c == '\n') {
+        line++;
+      } else if(c != ' ' && c != '\t' && c != '\r') {
+        break;
+      }
+    }
+    return from;
+  }
+
+  private int skipIdentifier(int from) {
+    for(; from + 8 <= end; from += 8) {
+      long word = word(from);
+      long low = word & LOWS;                                                   // Safe to add to; bytes >= 0x80 are masked out below
+      long alphaNumeric = (inRange(low, '0', '9') | inRange(low, 'A', 'Z') |
+        inRange(low, 'a', 'z') | zeroBytes(word ^ ONES * '_')) & ~word;
+      long other = ~alphaNumeric & HIGHS;
+      if(other != 0) return from + lane(other);
+    }
+    while(from < end && (isAlpha(source[from]) || isDigit(source[from]))) {
+      from++;
+    }
+    return from;
+  }
+
+  private long word(int index) {
+    return (long)WORDS.get(source, index);
+  }
+
+  // The high bit of each byte of `word` that is zero. Exact, unlike the
+  // usual (x - ONES) & ~x & HIGHS, which can flag a 0x01 above a zero byte.
+  private static long zeroBytes(long word) {
+    return ~(((word & LOWS) + LOWS) | word | LOWS);
+  }
+
+  // The high bit of each byte in [lo, hi], for words whose bytes are all
+  // below 0x80. Adding 0x80 - c to a byte sets its high bit exactly when the
+  // byte is at least c, and never carries into the next byte.
+  private static long inRange(long low, char lo, char hi) {
+    long atLeastLo = low + ONES * (0x80 - lo);
+    long aboveHi = low + ONES * (0x80 - hi - 1);
+    return atLeastLo & ~aboveHi & HIGHS;
+  }
+
+  // Index of the first flagged byte. Little-endian, so the lowest one.
+  private static int lane(long flags) {
+    return Long.numberOfTrailingZeros(flags) >>> 3;
+  }
+
+  private static boolean isAlpha(byte c) {
+    return (c >= 'a' && c <= 'z') ||
+           (c >= 'A' && c <= 'Z') ||
+            c == '_';
+  }
+
+  private static boolean isDigit(byte c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private String ascii(int from, int to) {
+    return new String(source, from, to - from, StandardCharsets.ISO_8859_1);    // Copies the bytes as they are
+  }
+
+  private void error(String message) {
+    if(deferredErrors != null) {
+      deferredErrors.add(new Scanner.ScanError(line, message));
+    } else {
+      Lox.error(line, message);
+    }
+  }
+
+  private void addToken(TokenType type) {
+    tokens.add(new Token(type, ascii(start, current), null, line));
+  }
+}
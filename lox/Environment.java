@@ -1,52 +1,145 @@
 package lox;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
+  // Box for a variable that closures capture and someone assigns (see
+  // Resolver). The declaring scope and the closures all hold the same cell,
+  // and get() and assign() go through it, so everybody sees every write.
+  static final class Cell {
+    Object value;
+    final Interpreter owner;                                                    // See Interpreter.mayChange()
+
+    Cell(Object value) {
+      this(value, null);
+    }
+
+    Cell(Object value, Interpreter owner) {
+      this.value = value;
+      this.owner = owner;
+    }
+  }
+
   final Environment enclosing;
+  final Interpreter owner;                                                      // See Interpreter.mayChange()
   private final Map<String, Object> values = new HashMap<>();
+  private boolean topLevel = false;                                             // A module's or record's own scope
+  private Memo.Tables memos = null;                                             // Set on the globals only
 
   Environment() {
     enclosing = null;
+    owner = null;
   }
 
   Environment(Environment enclosing) {
+    this(enclosing, null);
+  }
+
+  Environment(Environment enclosing, Interpreter owner) {
     this.enclosing = enclosing;
+    this.owner = owner;
   }
 
-  Object get(Token name) {
-    if(values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+  Object get(String name, int line) {
+    Object value = values.get(name);
+    if(value != null || values.containsKey(name)) {
+      return value instanceof Cell ? ((Cell)value).value : value;
     }
 
     // If the variable isn't defined in the current environment, then go to the
     // parent environment to find the variable. Repeat until we reach the
     // outermost environment. 
-    if(enclosing != null) return enclosing.get(name);
+    if(enclosing != null) return enclosing.get(name, line);
+
+    throw new RuntimeError(line, "Undefined variable '" + name + "'.");
+  }
 
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+  // Like get(), but hands back a variable's cell itself rather than the
+  // value in it, for copying into a closure.
+  Object getCaptured(String name, int line) {
+    Object value = values.get(name);
+    if(value != null || values.containsKey(name)) return value;
+    if(enclosing != null) return enclosing.getCaptured(name, line);
+    throw new RuntimeError(line, "Undefined variable '" + name + "'.");
   }
 
-  void assign(Token name, Object value) {
+  // Returns the value the variable held before. `writer` is the interpreter
+  // doing the assignment.
+  Object assign(String name, int line, Object value, Interpreter writer) {
     // If we're assigning a value to a variable, that means it should already
     // exist in the environment's list of variables. If it doesn't exist then it
     // means we can't assign a value to it without creating a new entry, which
     // would be a definition.
-    if(values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
+    if(values.containsKey(name)) {
+      Object previous = values.get(name);
+      Interpreter owner = previous instanceof Cell ? ((Cell)previous).owner
+                                                   : this.owner;
+      if(!writer.mayChange(owner)) {
+        throw new RuntimeError(line,
+          "Can't assign to '" + name + "' from a parallel callable.");
+      }
+      if(previous instanceof Cell) {
+        Cell cell = (Cell)previous;
+        previous = cell.value;
+        cell.value = value;
+        return previous;
+      }
+      if(isTopLevel()) rebound(name);
+      return values.put(name, value);
     }
 
     if(enclosing != null) {
-      enclosing.assign(name, value);
-      return;
+      return enclosing.assign(name, line, value, writer);
     }
 
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    throw new RuntimeError(line, "Undefined variable '" + name + "'.");
+  }
+
+  // Marks this as the scope top-level code runs in (the globals are one
+  // without being marked). Closures declared under it look up variables the
+  // Resolver left alone here.
+  void markTopLevel() {
+    topLevel = true;
+  }
+
+  boolean isTopLevel() {
+    return topLevel || enclosing == null;
   }
 
   void define(String name, Object value) {
+    if(isTopLevel()) rebound(name);                                             // Memo tables may depend on the old value
+    values.put(name, value);
+  }
+
+  // Makes this, the globals of an interpreter, report changes to top-level
+  // bindings under it to the interpreter's memo tables.
+  void useMemos(Memo.Tables memos) {
+    this.memos = memos;
+  }
+
+  private void rebound(String name) {
+    Environment globals = this;
+    while(globals.enclosing != null) globals = globals.enclosing;
+    if(globals.memos != null) globals.memos.rebound(name);
+  }
+
+  // Like define(), but for filling in a brand new environment that nothing
+  // has looked anything up in yet (see Isolate), so Memo has nothing to
+  // invalidate.
+  void bind(String name, Object value) {
     values.put(name, value);
   }
+
+  // Read-only view of the bindings defined directly in this environment.
+  Map<String, Object> bindings() {
+    return Collections.unmodifiableMap(values);
+  }
+
+  // Copies every binding defined directly in `module` into this environment.
+  void importAll(Environment module) {
+    if(isTopLevel()) module.values.keySet().forEach(this::rebound);
+    values.putAll(module.values);
+  }
 }
@@ -0,0 +1,29 @@
+package lox;
+
+import java.util.BitSet;
+import java.util.List;
+
+// Receives events from an Interpreter it has been added to. Attaching a
+// listener makes programs compiled from then on run through an instrumented
+// copy of their tree (see Instrumenter); with no listeners the interpreter
+// runs the tree exactly as parsed and pays nothing for this.
+//
+// Events can arrive from ParallelNatives worker threads, so a listener that
+// keeps state has to be thread-safe.
+interface ExecutionListener {
+  // A program was instrumented. `lines` has a bit set for every line that
+  // starts a statement.
+  default void programLoaded(BitSet lines) {}
+
+  default void statementEnter(Stmt stmt, int line) {}
+
+  // Not called for a statement that ends in a runtime error.
+  default void statementExit(Stmt stmt, int line) {}
+
+  default void callEnter(Expr.Call call, Object callee, List<Object> arguments) {}
+
+  default void callExit(Expr.Call call, Object callee, Object result) {}
+
+  // A runtime error is about to be reported and end the program.
+  default void runtimeError(RuntimeError error) {}
+}
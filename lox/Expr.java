@@ -2,20 +2,70 @@ package lox;
 
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr permits
+    Expr.Assign,
+    Expr.Binary,
+    Expr.Call,
+    Expr.Compare,
+    Expr.Compound,
+    Expr.Get,
+    Expr.Grouping,
+    Expr.Increment,
+    Expr.Index,
+    Expr.Literal,
+    Expr.Logical,
+    Expr.Set,
+    Expr.SetIndex,
+    Expr.Super,
+    Expr.This,
+    Expr.TracedCall,
+    Expr.Unary,
+    Expr.Variable {
   interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
+    R visitCompareExpr(Compare expr);
+    R visitCompoundExpr(Compound expr);
+    R visitGetExpr(Get expr);
     R visitGroupingExpr(Grouping expr);
+    R visitIncrementExpr(Increment expr);
+    R visitIndexExpr(Index expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
+    R visitSetExpr(Set expr);
+    R visitSetIndexExpr(SetIndex expr);
+    R visitSuperExpr(Super expr);
+    R visitThisExpr(This expr);
+    R visitTracedCallExpr(TracedCall expr);
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
   }
-  static class Assign extends Expr {
-    Assign(Token name, Expr value) {
+
+  static final int ASSIGN = 0;
+  static final int BINARY = 1;
+  static final int CALL = 2;
+  static final int COMPARE = 3;
+  static final int COMPOUND = 4;
+  static final int GET = 5;
+  static final int GROUPING = 6;
+  static final int INCREMENT = 7;
+  static final int INDEX = 8;
+  static final int LITERAL = 9;
+  static final int LOGICAL = 10;
+  static final int SET = 11;
+  static final int SET_INDEX = 12;
+  static final int SUPER = 13;
+  static final int THIS = 14;
+  static final int TRACED_CALL = 15;
+  static final int UNARY = 16;
+  static final int VARIABLE = 17;
+  static final int KIND_COUNT = 18;
+  static final class Assign extends Expr {
+    Assign(String name, int line, Expr value) {
+      super(ASSIGN);
       this.name = name;
+      this.line = line;
       this.value = value;
     }
 
@@ -24,13 +74,16 @@ abstract class Expr {
       return visitor.visitAssignExpr(this);
     }
 
-    final Token name;
+    final String name;
+    final int line;
     final Expr value;
   }
-  static class Binary extends Expr {
-    Binary(Expr left, Token operator, Expr right) {
+  static final class Binary extends Expr {
+    Binary(Expr left, TokenType operator, int line, Expr right) {
+      super(BINARY);
       this.left = left;
       this.operator = operator;
+      this.line = line;
       this.right = right;
     }
 
@@ -40,13 +93,17 @@ abstract class Expr {
     }
 
     final Expr left;
-    final Token operator;
+    final TokenType operator;
+    final int line;
     final Expr right;
+
+    TypeInference.Type operandType;
   }
-  static class Call extends Expr {
-    Call(Expr callee, Token paren, List<Expr> arguments) {
+  static final class Call extends Expr {
+    Call(Expr callee, int line, List<Expr> arguments) {
+      super(CALL);
       this.callee = callee;
-      this.paren = paren;
+      this.line = line;
       this.arguments = arguments;
     }
 
@@ -56,11 +113,83 @@ abstract class Expr {
     }
 
     final Expr callee;
-    final Token paren;
+    final int line;
     final List<Expr> arguments;
   }
-  static class Grouping extends Expr {
+  static final class Compare extends Expr {
+    Compare(String name, int nameLine, TokenType operator, int line, String other, int otherLine, Object constant) {
+      super(COMPARE);
+      this.name = name;
+      this.nameLine = nameLine;
+      this.operator = operator;
+      this.line = line;
+      this.other = other;
+      this.otherLine = otherLine;
+      this.constant = constant;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitCompareExpr(this);
+    }
+
+    final String name;
+    final int nameLine;
+    final TokenType operator;
+    final int line;
+    final String other;
+    final int otherLine;
+    final Object constant;
+
+    TypeInference.Type operandType;
+  }
+  static final class Compound extends Expr {
+    Compound(String name, int line, int nameLine, TokenType operator, int operatorLine, Expr value) {
+      super(COMPOUND);
+      this.name = name;
+      this.line = line;
+      this.nameLine = nameLine;
+      this.operator = operator;
+      this.operatorLine = operatorLine;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitCompoundExpr(this);
+    }
+
+    final String name;
+    final int line;
+    final int nameLine;
+    final TokenType operator;
+    final int operatorLine;
+    final Expr value;
+
+    TypeInference.Type operandType;
+  }
+  static final class Get extends Expr {
+    Get(Expr object, String name, int line) {
+      super(GET);
+      this.object = object;
+      this.name = name;
+      this.line = line;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitGetExpr(this);
+    }
+
+    final Expr object;
+    final String name;
+    final int line;
+
+    Shape.Cache cache;
+  }
+  static final class Grouping extends Expr {
     Grouping(Expr expression) {
+      super(GROUPING);
       this.expression = expression;
     }
 
@@ -71,8 +200,51 @@ abstract class Expr {
 
     final Expr expression;
   }
-  static class Literal extends Expr {
+  static final class Increment extends Expr {
+    Increment(String name, int line, int nameLine, TokenType operator, int operatorLine, Object amount) {
+      super(INCREMENT);
+      this.name = name;
+      this.line = line;
+      this.nameLine = nameLine;
+      this.operator = operator;
+      this.operatorLine = operatorLine;
+      this.amount = amount;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIncrementExpr(this);
+    }
+
+    final String name;
+    final int line;
+    final int nameLine;
+    final TokenType operator;
+    final int operatorLine;
+    final Object amount;
+
+    TypeInference.Type operandType;
+  }
+  static final class Index extends Expr {
+    Index(Expr object, int line, Expr index) {
+      super(INDEX);
+      this.object = object;
+      this.line = line;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    final Expr object;
+    final int line;
+    final Expr index;
+  }
+  static final class Literal extends Expr {
     Literal(Object value) {
+      super(LITERAL);
       this.value = value;
     }
 
@@ -83,8 +255,9 @@ abstract class Expr {
 
     final Object value;
   }
-  static class Logical extends Expr {
-    Logical(Expr left, Token operator, Expr right) {
+  static final class Logical extends Expr {
+    Logical(Expr left, TokenType operator, Expr right) {
+      super(LOGICAL);
       this.left = left;
       this.operator = operator;
       this.right = right;
@@ -96,12 +269,95 @@ abstract class Expr {
     }
 
     final Expr left;
-    final Token operator;
+    final TokenType operator;
     final Expr right;
   }
-  static class Unary extends Expr {
-    Unary(Token operator, Expr right) {
+  static final class Set extends Expr {
+    Set(Expr object, String name, int line, Expr value) {
+      super(SET);
+      this.object = object;
+      this.name = name;
+      this.line = line;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSetExpr(this);
+    }
+
+    final Expr object;
+    final String name;
+    final int line;
+    final Expr value;
+
+    Shape.Cache cache;
+  }
+  static final class SetIndex extends Expr {
+    SetIndex(Expr object, int line, Expr index, Expr value) {
+      super(SET_INDEX);
+      this.object = object;
+      this.line = line;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSetIndexExpr(this);
+    }
+
+    final Expr object;
+    final int line;
+    final Expr index;
+    final Expr value;
+  }
+  static final class Super extends Expr {
+    Super(String method, int line) {
+      super(SUPER);
+      this.method = method;
+      this.line = line;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSuperExpr(this);
+    }
+
+    final String method;
+    final int line;
+  }
+  static final class This extends Expr {
+    This(int line) {
+      super(THIS);
+      this.line = line;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitThisExpr(this);
+    }
+
+    final int line;
+  }
+  static final class TracedCall extends Expr {
+    TracedCall(Call call) {
+      super(TRACED_CALL);
+      this.call = call;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitTracedCallExpr(this);
+    }
+
+    final Call call;
+  }
+  static final class Unary extends Expr {
+    Unary(TokenType operator, int line, Expr right) {
+      super(UNARY);
       this.operator = operator;
+      this.line = line;
       this.right = right;
     }
 
@@ -110,12 +366,17 @@ abstract class Expr {
       return visitor.visitUnaryExpr(this);
     }
 
-    final Token operator;
+    final TokenType operator;
+    final int line;
     final Expr right;
+
+    TypeInference.Type operandType;
   }
-  static class Variable extends Expr {
-    Variable(Token name) {
+  static final class Variable extends Expr {
+    Variable(String name, int line) {
+      super(VARIABLE);
       this.name = name;
+      this.line = line;
     }
 
     @Override
@@ -123,8 +384,40 @@ abstract class Expr {
       return visitor.visitVariableExpr(this);
     }
 
-    final Token name;
+    final String name;
+    final int line;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
+
+  final int kind;
+
+  Expr(int kind) {
+    this.kind = kind;
+  }
+
+  // Same as expr.accept(visitor), but through a switch on the kind tag
+  static <R> R dispatch(Expr expr, Visitor<R> visitor) {
+    switch(expr.kind) {
+      case ASSIGN: return visitor.visitAssignExpr((Assign)expr);
+      case BINARY: return visitor.visitBinaryExpr((Binary)expr);
+      case CALL: return visitor.visitCallExpr((Call)expr);
+      case COMPARE: return visitor.visitCompareExpr((Compare)expr);
+      case COMPOUND: return visitor.visitCompoundExpr((Compound)expr);
+      case GET: return visitor.visitGetExpr((Get)expr);
+      case GROUPING: return visitor.visitGroupingExpr((Grouping)expr);
+      case INCREMENT: return visitor.visitIncrementExpr((Increment)expr);
+      case INDEX: return visitor.visitIndexExpr((Index)expr);
+      case LITERAL: return visitor.visitLiteralExpr((Literal)expr);
+      case LOGICAL: return visitor.visitLogicalExpr((Logical)expr);
+      case SET: return visitor.visitSetExpr((Set)expr);
+      case SET_INDEX: return visitor.visitSetIndexExpr((SetIndex)expr);
+      case SUPER: return visitor.visitSuperExpr((Super)expr);
+      case THIS: return visitor.visitThisExpr((This)expr);
+      case TRACED_CALL: return visitor.visitTracedCallExpr((TracedCall)expr);
+      case UNARY: return visitor.visitUnaryExpr((Unary)expr);
+      case VARIABLE: return visitor.visitVariableExpr((Variable)expr);
+    }
+    throw new AssertionError(expr.kind);
+  }
 }
@@ -0,0 +1,168 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Native functions for reading and writing files.
+//
+//   open(path)            -> file for reading
+//   readLine(file)        -> next line without its terminator, or nil at the end
+//   readChunk(file, n)    -> about n more bytes as a string, or nil at the end
+//   create(path)          -> file for writing, replacing any existing one
+//   write(file, value)    -> writes the value as print would, without a newline
+//   writeLine(file, value)
+//   close(file)
+//
+// Files still open when the process exits are closed then, so buffered
+// output isn't lost if a script forgets or dies with an error.
+class FileNatives {
+  private static final Set<Object> open = ConcurrentHashMap.newKeySet();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      for(Object file : open) {
+        try {
+          close(file);
+        } catch(IOException error) {
+          System.err.println("Could not close " + file + ": " +
+            error.getMessage());
+        }
+      }
+    }));
+  }
+
+  private FileNatives() {}
+
+  static void define(Environment globals) {
+    new NativeFunction("open", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        String path = checkPath(arguments.get(0));
+        try {
+          LoxReader reader = new LoxReader(Paths.get(path));
+          open.add(reader);
+          return reader;
+        } catch(IOException error) {
+          throw new RuntimeError("Could not open '" + path + "'.");
+        }
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("readLine", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxReader reader = checkReader(arguments.get(0));
+        try {
+          return reader.readLine();
+        } catch(IOException error) {
+          throw new RuntimeError("Could not read " + reader + ".");
+        }
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("readChunk", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxReader reader = checkReader(arguments.get(0));
+        Object length = Numbers.integral(arguments.get(1));
+        if(!(length instanceof Long) || (long)length <= 0 ||
+            (long)length > Integer.MAX_VALUE - 8) {
+          throw new RuntimeError("Chunk length must be a positive integer.");
+        }
+        try {
+          return reader.readChunk((int)(long)length);
+        } catch(IOException error) {
+          throw new RuntimeError("Could not read " + reader + ".");
+        }
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("create", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        String path = checkPath(arguments.get(0));
+        try {
+          LoxWriter writer = new LoxWriter(Paths.get(path));
+          open.add(writer);
+          return writer;
+        } catch(IOException error) {
+          throw new RuntimeError("Could not create '" + path + "'.");
+        }
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("write", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        write(checkWriter(arguments.get(0)),
+          Interpreter.stringify(arguments.get(1)));
+        return null;
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("writeLine", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxWriter writer = checkWriter(arguments.get(0));
+        write(writer, Interpreter.stringify(arguments.get(1)));
+        write(writer, "\n");
+        return null;
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("close", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object file = arguments.get(0);
+        if(!(file instanceof LoxReader) && !(file instanceof LoxWriter)) {
+          throw new RuntimeError("Argument must be a file.");
+        }
+        try {
+          close(file);
+        } catch(IOException error) {
+          throw new RuntimeError("Could not close " + file + ".");
+        }
+        return null;
+      }
+    }.defineIn(globals);
+  }
+
+  private static void write(LoxWriter writer, String text) {
+    try {
+      writer.write(text);
+    } catch(IOException error) {
+      throw new RuntimeError("Could not write " + writer + ".");
+    }
+  }
+
+  private static void close(Object file) throws IOException {
+    open.remove(file);
+    if(file instanceof LoxReader) {
+      ((LoxReader)file).close();
+    } else {
+      ((LoxWriter)file).close();
+    }
+  }
+
+  private static String checkPath(Object value) {
+    if(value instanceof String) return (String)value;
+    throw new RuntimeError("Path must be a string.");
+  }
+
+  static LoxReader checkReader(Object value) {
+    if(value instanceof LoxReader && !((LoxReader)value).isClosed()) {
+      return (LoxReader)value;
+    }
+    throw new RuntimeError("Argument must be a file open for reading.");
+  }
+
+  static LoxWriter checkWriter(Object value) {
+    if(value instanceof LoxWriter && !((LoxWriter)value).isClosed()) {
+      return (LoxWriter)value;
+    }
+    throw new RuntimeError("Argument must be a file open for writing.");
+  }
+}
@@ -0,0 +1,309 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Replaces the patterns hot loops are made of with single fused nodes, so
+// each runs as one dispatch instead of three or four:
+//
+//   x = x + 1   (or - a number)        Expr.Increment
+//   x = x + e   (or -, *, / any e)     Expr.Compound
+//   a < b, a == 1 (any comparison of   Expr.Compare, which an if or while
+//     a variable with a variable or    condition also tests without boxing
+//     a literal)                       the result
+//
+// Fused nodes evaluate in the same order and fail with the same messages at
+// the same lines as the nodes they replace. The pass runs right after
+// parsing, so every later pass sees them. Subtrees without anything to fuse
+// are kept as they are, and so is the tree itself if nothing was fused.
+class Fusion {
+  List<Stmt> fuse(List<Stmt> statements) {
+    List<Stmt> fused = null;                                                    // Only copied once something changes
+    for(int i = 0; i < statements.size(); i++) {
+      Stmt statement = statements.get(i);
+      Stmt result = stmt(statement);
+      if(result != statement && fused == null) {
+        fused = new ArrayList<>(statements.subList(0, i));
+      }
+      if(fused != null) fused.add(result);
+    }
+    return fused != null ? fused : statements;
+  }
+
+  private Stmt stmt(Stmt stmt) {
+    if(stmt == null) return null;                                               // A parse error, or a missing else
+
+    switch(stmt.kind) {
+      case Stmt.BLOCK: {
+        Stmt.Block s = (Stmt.Block)stmt;
+        List<Stmt> statements = fuse(s.statements);
+        return statements == s.statements ? s
+                                          : new Stmt.Block(s.line, statements);
+      }
+      case Stmt.CLASS: {
+        Stmt.Class s = (Stmt.Class)stmt;
+        List<Stmt.Function> methods = new ArrayList<>(s.methods.size());
+        boolean changed = false;
+        for(Stmt.Function method : s.methods) {
+          Stmt.Function result = function(method);
+          changed |= result != method;
+          methods.add(result);
+        }
+        if(!changed) return s;
+        Stmt.Class klass = new Stmt.Class(s.name, s.line, s.superclass, methods);
+        klass.cell = s.cell;
+        return klass;
+      }
+      case Stmt.EXPRESSION: {
+        Stmt.Expression s = (Stmt.Expression)stmt;
+        Expr expression = expr(s.expression);
+        if(expression == s.expression) return s;
+        return new Stmt.Expression(expression, s.line);
+      }
+      case Stmt.FUNCTION:
+        return function((Stmt.Function)stmt);
+      case Stmt.IF: {
+        Stmt.If s = (Stmt.If)stmt;
+        Expr condition = expr(s.condition);
+        Stmt thenBranch = stmt(s.thenBranch);
+        Stmt elseBranch = stmt(s.elseBranch);
+        if(condition == s.condition && thenBranch == s.thenBranch &&
+            elseBranch == s.elseBranch) {
+          return s;
+        }
+        return new Stmt.If(condition, s.line, thenBranch, elseBranch);
+      }
+      case Stmt.PRINT: {
+        Stmt.Print s = (Stmt.Print)stmt;
+        Expr expression = expr(s.expression);
+        if(expression == s.expression) return s;
+        return new Stmt.Print(expression, s.line);
+      }
+      case Stmt.RETURN: {
+        Stmt.Return s = (Stmt.Return)stmt;
+        Expr value = expr(s.value);
+        if(value == s.value) return s;
+        return new Stmt.Return(s.line, value);
+      }
+      case Stmt.TRACED: {
+        Stmt.Traced s = (Stmt.Traced)stmt;
+        Stmt statement = stmt(s.statement);
+        if(statement == s.statement) return s;
+        return new Stmt.Traced(statement, s.line);
+      }
+      case Stmt.VAR: {
+        Stmt.Var s = (Stmt.Var)stmt;
+        Expr initializer = expr(s.initializer);
+        if(initializer == s.initializer) return s;
+        Stmt.Var var = new Stmt.Var(s.name, s.line, initializer);
+        var.cell = s.cell;
+        return var;
+      }
+      case Stmt.WHILE: {
+        Stmt.While s = (Stmt.While)stmt;
+        Expr condition = expr(s.condition);
+        Stmt body = stmt(s.body);
+        Expr increment = expr(s.increment);
+        if(condition == s.condition && body == s.body &&
+            increment == s.increment) {
+          return s;
+        }
+        return new Stmt.While(condition, s.line, body, increment);
+      }
+      case Stmt.BREAK:
+      case Stmt.CONTINUE:
+      case Stmt.IMPORT:
+        return stmt;
+      default:
+        throw new AssertionError(stmt.kind);
+    }
+  }
+
+  private Stmt.Function function(Stmt.Function function) {
+    List<Stmt> body = fuse(function.body);
+    if(body == function.body) return function;
+    Stmt.Function copy = new Stmt.Function(function.name, function.line,
+      function.params, body);
+    copy.cell = function.cell;
+    copy.captures = function.captures;
+    copy.paramCells = function.paramCells;
+    copy.impurity = function.impurity;
+    copy.globals = function.globals;
+    return copy;
+  }
+
+  private Expr expr(Expr expr) {
+    if(expr == null) return null;
+
+    switch(expr.kind) {
+      case Expr.ASSIGN: {
+        Expr.Assign e = (Expr.Assign)expr;
+        Expr value = expr(e.value);
+        Expr fused = fuseAssign(e, value);
+        if(fused != null) return fused;
+        if(value == e.value) return e;
+        return new Expr.Assign(e.name, e.line, value);
+      }
+      case Expr.BINARY: {
+        Expr.Binary e = (Expr.Binary)expr;
+        Expr fused = fuseCompare(e);
+        if(fused != null) return fused;
+        Expr left = expr(e.left);
+        Expr right = expr(e.right);
+        if(left == e.left && right == e.right) return e;
+        Expr.Binary copy = new Expr.Binary(left, e.operator, e.line, right);
+        copy.operandType = e.operandType;
+        return copy;
+      }
+      case Expr.CALL: {
+        Expr.Call e = (Expr.Call)expr;
+        Expr callee = expr(e.callee);
+        List<Expr> arguments = exprs(e.arguments);
+        if(callee == e.callee && arguments == e.arguments) return e;
+        return new Expr.Call(callee, e.line, arguments);
+      }
+      case Expr.COMPOUND: {
+        Expr.Compound e = (Expr.Compound)expr;
+        Expr value = expr(e.value);
+        if(value == e.value) return e;
+        Expr.Compound copy = new Expr.Compound(e.name, e.line, e.nameLine,
+          e.operator, e.operatorLine, value);
+        copy.operandType = e.operandType;
+        return copy;
+      }
+      case Expr.GET: {
+        Expr.Get e = (Expr.Get)expr;
+        Expr object = expr(e.object);
+        if(object == e.object) return e;
+        return new Expr.Get(object, e.name, e.line);
+      }
+      case Expr.GROUPING: {
+        Expr.Grouping e = (Expr.Grouping)expr;
+        Expr expression = expr(e.expression);
+        if(expression == e.expression) return e;
+        return new Expr.Grouping(expression);
+      }
+      case Expr.INDEX: {
+        Expr.Index e = (Expr.Index)expr;
+        Expr object = expr(e.object);
+        Expr index = expr(e.index);
+        if(object == e.object && index == e.index) return e;
+        return new Expr.Index(object, e.line, index);
+      }
+      case Expr.LOGICAL: {
+        Expr.Logical e = (Expr.Logical)expr;
+        Expr left = expr(e.left);
+        Expr right = expr(e.right);
+        if(left == e.left && right == e.right) return e;
+        return new Expr.Logical(left, e.operator, right);
+      }
+      case Expr.SET: {
+        Expr.Set e = (Expr.Set)expr;
+        Expr object = expr(e.object);
+        Expr value = expr(e.value);
+        if(object == e.object && value == e.value) return e;
+        return new Expr.Set(object, e.name, e.line, value);
+      }
+      case Expr.SET_INDEX: {
+        Expr.SetIndex e = (Expr.SetIndex)expr;
+        Expr object = expr(e.object);
+        Expr index = expr(e.index);
+        Expr value = expr(e.value);
+        if(object == e.object && index == e.index && value == e.value) return e;
+        return new Expr.SetIndex(object, e.line, index, value);
+      }
+      case Expr.TRACED_CALL: {
+        Expr.TracedCall e = (Expr.TracedCall)expr;
+        Expr call = expr(e.call);
+        if(call == e.call) return e;
+        return new Expr.TracedCall((Expr.Call)call);
+      }
+      case Expr.UNARY: {
+        Expr.Unary e = (Expr.Unary)expr;
+        Expr right = expr(e.right);
+        if(right == e.right) return e;
+        Expr.Unary copy = new Expr.Unary(e.operator, e.line, right);
+        copy.operandType = e.operandType;
+        return copy;
+      }
+      case Expr.COMPARE:
+      case Expr.INCREMENT:
+      case Expr.LITERAL:
+      case Expr.SUPER:
+      case Expr.THIS:
+      case Expr.VARIABLE:
+        return expr;
+      default:
+        throw new AssertionError(expr.kind);
+    }
+  }
+
+  private List<Expr> exprs(List<Expr> exprs) {
+    List<Expr> fused = null;
+    for(int i = 0; i < exprs.size(); i++) {
+      Expr expr = exprs.get(i);
+      Expr result = expr(expr);
+      if(result != expr && fused == null) {
+        fused = new ArrayList<>(exprs.subList(0, i));
+      }
+      if(fused != null) fused.add(result);
+    }
+    return fused != null ? fused : exprs;
+  }
+
+  // x = x <op> value, with value already fused. Null if it doesn't match.
+  private static Expr fuseAssign(Expr.Assign assign, Expr value) {
+    if(value.kind != Expr.BINARY) return null;
+    Expr.Binary binary = (Expr.Binary)value;
+    if(binary.left.kind != Expr.VARIABLE) return null;
+    Expr.Variable variable = (Expr.Variable)binary.left;
+    if(!variable.name.equals(assign.name)) return null;
+
+    switch(binary.operator) {
+      case PLUS:
+      case MINUS:
+        if(binary.right.kind == Expr.LITERAL &&
+            Numbers.isNumber(((Expr.Literal)binary.right).value)) {
+          return new Expr.Increment(assign.name, assign.line, variable.line,
+            binary.operator, binary.line, ((Expr.Literal)binary.right).value);
+        }
+        break;
+      case STAR:
+      case SLASH:
+        break;
+      default:
+        return null;
+    }
+    return new Expr.Compound(assign.name, assign.line, variable.line,
+      binary.operator, binary.line, binary.right);
+  }
+
+  // A comparison of a variable with a variable or a literal. Null if it
+  // isn't one.
+  private static Expr fuseCompare(Expr.Binary binary) {
+    switch(binary.operator) {
+      case BANG_EQUAL:
+      case EQUAL_EQUAL:
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        break;
+      default:
+        return null;
+    }
+    if(binary.left.kind != Expr.VARIABLE) return null;
+    Expr.Variable left = (Expr.Variable)binary.left;
+
+    if(binary.right.kind == Expr.VARIABLE) {
+      Expr.Variable right = (Expr.Variable)binary.right;
+      return new Expr.Compare(left.name, left.line, binary.operator, binary.line,
+        right.name, right.line, null);
+    }
+    if(binary.right.kind == Expr.LITERAL) {
+      return new Expr.Compare(left.name, left.line, binary.operator, binary.line,
+        null, RuntimeError.NO_LINE, ((Expr.Literal)binary.right).value);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,194 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+// Makes the copy of a program that the interpreter runs while listeners are
+// attached: every statement other than a block is wrapped in a Stmt.Traced
+// and every call in an Expr.TracedCall. The original tree is left as it was,
+// so the instrumentation costs nothing once it's no longer in use.
+//
+// Nodes are rebuilt bottom up, with annotations from earlier passes carried
+// over.
+class Instrumenter {
+  private final BitSet lines = new BitSet();
+
+  // Lines that start a statement in everything instrumented so far.
+  BitSet lines() {
+    return lines;
+  }
+
+  List<Stmt> instrument(List<Stmt> statements) {
+    List<Stmt> instrumented = new ArrayList<>(statements.size());
+    for(Stmt statement : statements) {
+      instrumented.add(statement == null ? null : stmt(statement));             // null means the statement had a parse error
+    }
+    return instrumented;
+  }
+
+  private Stmt stmt(Stmt stmt) {
+    if(stmt == null) return null;
+
+    Stmt copy;
+    int line;
+    switch(stmt.kind) {
+      case Stmt.BLOCK:
+        Stmt.Block block = (Stmt.Block)stmt;
+        return new Stmt.Block(block.line, instrument(block.statements));        // Blocks aren't statements anyone steps onto
+      case Stmt.BREAK:
+        copy = stmt;
+        line = ((Stmt.Break)stmt).line;
+        break;
+      case Stmt.CLASS: {
+        Stmt.Class s = (Stmt.Class)stmt;
+        List<Stmt.Function> methods = new ArrayList<>(s.methods.size());
+        for(Stmt.Function method : s.methods) methods.add(function(method));
+        Stmt.Class klass = new Stmt.Class(s.name, s.line, s.superclass, methods);
+        klass.cell = s.cell;
+        copy = klass;
+        line = s.line;
+        break;
+      }
+      case Stmt.CONTINUE:
+        copy = stmt;
+        line = ((Stmt.Continue)stmt).line;
+        break;
+      case Stmt.EXPRESSION: {
+        Stmt.Expression s = (Stmt.Expression)stmt;
+        copy = new Stmt.Expression(expr(s.expression), s.line);
+        line = s.line;
+        break;
+      }
+      case Stmt.FUNCTION:
+        copy = function((Stmt.Function)stmt);
+        line = ((Stmt.Function)stmt).line;
+        break;
+      case Stmt.IF: {
+        Stmt.If s = (Stmt.If)stmt;
+        copy = new Stmt.If(expr(s.condition), s.line, stmt(s.thenBranch),
+          stmt(s.elseBranch));
+        line = s.line;
+        break;
+      }
+      case Stmt.IMPORT:
+        copy = stmt;
+        line = ((Stmt.Import)stmt).line;
+        break;
+      case Stmt.PRINT: {
+        Stmt.Print s = (Stmt.Print)stmt;
+        copy = new Stmt.Print(expr(s.expression), s.line);
+        line = s.line;
+        break;
+      }
+      case Stmt.RETURN: {
+        Stmt.Return s = (Stmt.Return)stmt;
+        copy = new Stmt.Return(s.line, expr(s.value));
+        line = s.line;
+        break;
+      }
+      case Stmt.TRACED:
+        return stmt;                                                            // Already instrumented
+      case Stmt.VAR: {
+        Stmt.Var s = (Stmt.Var)stmt;
+        Stmt.Var var = new Stmt.Var(s.name, s.line, expr(s.initializer));
+        var.cell = s.cell;
+        copy = var;
+        line = s.line;
+        break;
+      }
+      case Stmt.WHILE: {
+        Stmt.While s = (Stmt.While)stmt;
+        copy = new Stmt.While(expr(s.condition), s.line, stmt(s.body),
+          expr(s.increment));
+        line = s.line;
+        break;
+      }
+      default:
+        throw new AssertionError(stmt.kind);
+    }
+
+    lines.set(line);
+    return new Stmt.Traced(copy, line);
+  }
+
+  private Stmt.Function function(Stmt.Function function) {
+    Stmt.Function copy = new Stmt.Function(function.name, function.line,
+      function.params, instrument(function.body));
+    copy.cell = function.cell;
+    copy.captures = function.captures;
+    copy.paramCells = function.paramCells;
+    return copy;
+  }
+
+  private Expr expr(Expr expr) {
+    if(expr == null) return null;
+
+    switch(expr.kind) {
+      case Expr.ASSIGN: {
+        Expr.Assign e = (Expr.Assign)expr;
+        return new Expr.Assign(e.name, e.line, expr(e.value));
+      }
+      case Expr.BINARY: {
+        Expr.Binary e = (Expr.Binary)expr;
+        Expr.Binary copy = new Expr.Binary(expr(e.left), e.operator, e.line,
+          expr(e.right));
+        copy.operandType = e.operandType;
+        return copy;
+      }
+      case Expr.CALL: {
+        Expr.Call e = (Expr.Call)expr;
+        List<Expr> arguments = new ArrayList<>(e.arguments.size());
+        for(Expr argument : e.arguments) arguments.add(expr(argument));
+        return new Expr.TracedCall(
+          new Expr.Call(expr(e.callee), e.line, arguments));
+      }
+      case Expr.COMPOUND: {
+        Expr.Compound e = (Expr.Compound)expr;
+        Expr.Compound copy = new Expr.Compound(e.name, e.line, e.nameLine,
+          e.operator, e.operatorLine, expr(e.value));
+        copy.operandType = e.operandType;
+        return copy;
+      }
+      case Expr.GET: {
+        Expr.Get e = (Expr.Get)expr;
+        return new Expr.Get(expr(e.object), e.name, e.line);
+      }
+      case Expr.GROUPING:
+        return new Expr.Grouping(expr(((Expr.Grouping)expr).expression));
+      case Expr.INDEX: {
+        Expr.Index e = (Expr.Index)expr;
+        return new Expr.Index(expr(e.object), e.line, expr(e.index));
+      }
+      case Expr.LOGICAL: {
+        Expr.Logical e = (Expr.Logical)expr;
+        return new Expr.Logical(expr(e.left), e.operator, expr(e.right));
+      }
+      case Expr.SET: {
+        Expr.Set e = (Expr.Set)expr;
+        return new Expr.Set(expr(e.object), e.name, e.line, expr(e.value));
+      }
+      case Expr.SET_INDEX: {
+        Expr.SetIndex e = (Expr.SetIndex)expr;
+        return new Expr.SetIndex(expr(e.object), e.line, expr(e.index),
+          expr(e.value));
+      }
+      case Expr.UNARY: {
+        Expr.Unary e = (Expr.Unary)expr;
+        Expr.Unary copy = new Expr.Unary(e.operator, e.line, expr(e.right));
+        copy.operandType = e.operandType;
+        return copy;
+      }
+      case Expr.COMPARE:
+      case Expr.INCREMENT:
+      case Expr.LITERAL:
+      case Expr.SUPER:
+      case Expr.THIS:
+      case Expr.TRACED_CALL:
+      case Expr.VARIABLE:
+        return expr;                                                            // Nothing inside to instrument
+      default:
+        throw new AssertionError(expr.kind);
+    }
+  }
+}
@@ -1,18 +1,195 @@
 package lox;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+class Interpreter implements Expr.Visitor<Object>,
+                               Stmt.Visitor<Interpreter.Completion> {
+  // How a statement finished when it didn't just fall through to the next one
+  // (which is signalled with null). These are handed back up through
+  // execute() until the enclosing loop (or function, for RETURN) sees them,
+  // instead of being thrown, so an early exit costs no more than a normal
+  // iteration. The value being returned waits in returnValue.
+  enum Completion { BREAK, CONTINUE, RETURN }
+
+  final Environment globals;
+  final MemoryAccount memory;
+  final Memo.Tables memos;
+  private Environment environment;
+  private final boolean worker;
+  private final List<ExecutionListener> listeners;
+  private Object returnValue = null;
+
+  // Imports are resolved relative to the directory of the module being run.
+  private Path moduleDir = Paths.get("");
+
+  // One instance per imported module, so a module's top-level code runs (and
+  // binds its globals) only once no matter how often it is imported.
+  private final Map<Path, Environment> modules = new HashMap<>();
+
+  Interpreter() {
+    globals = new Environment();
+    memory = new MemoryAccount();
+    memos = new Memo.Tables();
+    globals.useMemos(memos);
+    environment = globals;
+    worker = false;
+    listeners = new CopyOnWriteArrayList<>();
+    ArrayNatives.define(globals);
+    MapNatives.define(globals);
+    ParallelNatives.define(globals);
+    FileNatives.define(globals);
+    TaskNatives.define(globals);
+    MathNatives.define(globals);
+    JsonNatives.define(globals);
+  }
+
+  // An interpreter for a ParallelNatives worker thread. It reads the parent's
+  // globals but has its own environment stack, which isn't safe to share
+  // between threads, and may only change what it creates (see mayChange()).
+  // It charges the parent's memory account.
+  Interpreter(Interpreter parent) {
+    globals = parent.globals;
+    memory = parent.memory;
+    memos = parent.memos;
+    environment = globals;
+    worker = true;
+    listeners = parent.listeners;
+  }
+
+  // An interpreter for a task started with spawn(). It runs in `globals`, a
+  // copy of the parent's world made by Isolate, with environments of its
+  // own, so its state is private to the task. It charges the parent's
+  // memory account, so the quota covers every task together.
+  Interpreter(Interpreter parent, Environment globals) {
+    this.globals = globals;
+    memory = parent.memory;
+    memos = parent.memos.copy();
+    globals.useMemos(memos);
+    environment = globals;
+    worker = false;
+    listeners = parent.listeners;
+    moduleDir = parent.moduleDir;
+  }
+
+  // Overridden so workers and tasks dispatch the same way as the
+  // interpreter that started them.
+  Interpreter worker() {
+    return new Interpreter(this);
+  }
+
+  Interpreter task(Environment globals) {
+    return new Interpreter(this, globals);
+  }
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-  private Environment environment = new Environment();
+  // Whether this interpreter may change a variable, array, map or instance
+  // that `owner` created. A parallel worker may only change what it created
+  // itself, since anything else can be in use by the workers running next to
+  // it. Everything created outside a worker has no owner.
+  boolean mayChange(Interpreter owner) {
+    return !worker || owner == this;
+  }
+
+  // The owner to record on what this interpreter creates.
+  Interpreter owner() {
+    return worker ? this : null;
+  }
+
+  void setModuleDir(Path dir) {
+    moduleDir = dir;
+  }
+
+  // The modules imported so far, by path, for Snapshot.
+  Map<Path, Environment> modules() {
+    return Collections.unmodifiableMap(modules);
+  }
+
+  // Registers a module restored from a snapshot, so importing it again
+  // doesn't run it.
+  void addModule(Path path, Environment module) {
+    modules.put(path, module);
+  }
+
+  // Only programs compiled after this call report to the listener.
+  void addListener(ExecutionListener listener) {
+    listeners.add(listener);
+  }
+
+  // With listeners attached, returns the instrumented copy of the program
+  // that reports to them; otherwise returns the program itself.
+  List<Stmt> instrument(List<Stmt> statements) {
+    if(listeners.isEmpty()) return statements;
+    Instrumenter instrumenter = new Instrumenter();
+    List<Stmt> instrumented = instrumenter.instrument(statements);
+    for(ExecutionListener listener : listeners) {
+      listener.programLoaded(instrumenter.lines());
+    }
+    return instrumented;
+  }
 
   void interpret(List<Stmt> statements) {
+    ModuleLoader.prefetch(moduleDir, statements);                               // Start parsing imports while we run
     try {
       for(Stmt statement : statements) {
         execute(statement);
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      reportError(error);
+    }
+  }
+
+  // Runs one top-level statement of a program that is still being parsed;
+  // see Lox.runIncremental. Returns false after a runtime error.
+  boolean interpretStatement(Stmt statement) {
+    ModuleLoader.prefetch(moduleDir, List.of(statement));
+    try {
+      execute(statement);
+      return true;
+    } catch (RuntimeError error) {
+      reportError(error);
+      return false;
+    }
+  }
+
+  // Runs the function a task was spawned with, on the task's interpreter.
+  // A runtime error is reported straight away, since the task may never be
+  // joined, and then rethrown.
+  Object runTask(LoxFunction function, List<Object> arguments) {
+    try {
+      Object result = new Isolate().copy(function.call(this, arguments));
+      if(result == Isolate.UNSHAREABLE) {
+        throw new RuntimeError(function.declaration().line,
+          "A task can only return immutable values.");
+      }
+      return result;
+    } catch(RuntimeError error) {
+      reportError(error);
+      throw error;
+    }
+  }
+
+  // Record mode: runs the program in a new top-level scope under the
+  // globals, so each record starts clean while closures that escaped an
+  // earlier record keep seeing that record's variables. Returns false after
+  // a runtime error.
+  boolean interpretRecord(List<Stmt> statements) {
+    Environment scope = new Environment(globals);
+    scope.markTopLevel();
+    try {
+      executeBlock(statements, scope);
+      return true;
+    } catch (RuntimeError error) {
+      reportError(error);
+      return false;
+    } finally {
+      memory.release(MemoryAccount.sizeOf(scope) - MemoryAccount.ENVIRONMENT_BYTES);
     }
   }
 
@@ -20,69 +197,188 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitBinaryExpr(Expr.Binary expr) {
     Object left = evaluate(expr.left);                                          // Evaluate both sides first
     Object right = evaluate(expr.right); 
+    return operate(expr.operator, expr.line, expr.operandType, left, right);
+  }
 
-    switch(expr.operator.type) {
+  // The work of a Binary node once both operands are known, shared with the
+  // fused nodes that stand in for one.
+  private Object operate(TokenType operator, int line,
+      TypeInference.Type operandType, Object left, Object right) {
+    switch(operator) {
       case BANG_EQUAL: return !isEqual(left, right);
       case EQUAL_EQUAL: return isEqual(left, right);
       case GREATER:
-        checkNumberOperands(expr.operator, left, right);
-        return (double)left > (double)right;
+        checkNumberOperands(operandType, line, left, right);
+        return Numbers.greater(left, right);
       case GREATER_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
-        return (double)left >= (double)right;
+        checkNumberOperands(operandType, line, left, right);
+        return Numbers.greaterEqual(left, right);
       case LESS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double)left < (double)right;
+        checkNumberOperands(operandType, line, left, right);
+        return Numbers.less(left, right);
       case LESS_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
-        return (double)left <= (double)right;
+        checkNumberOperands(operandType, line, left, right);
+        return Numbers.lessEqual(left, right);
       case MINUS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double)left - (double)right;
+        checkNumberOperands(operandType, line, left, right);
+        return Numbers.subtract(left, right);
       case PLUS:
-        if(left instanceof Double && right instanceof Double) {
-          return (double)left + (double)right;
+        if(operandType == TypeInference.Type.NUMBER ||
+            (Numbers.isNumber(left) && Numbers.isNumber(right))) {
+          return Numbers.add(left, right);
         } 
-        if(left instanceof String && right instanceof String) {
-          return (String)left + (String)right;
+        if(operandType == TypeInference.Type.STRING ||
+            (left instanceof String && right instanceof String)) {
+          String a = (String)left, b = (String)right;
+          // Refuse before building a string that can't fit in the quota.
+          memory.check(MemoryAccount.stringBytes(a.length() + b.length()), line);
+          return a + b;
         }
-        throw new RuntimeError(expr.operator, 
+        throw new RuntimeError(line, 
           "Operands must be two numbers or two strings.");
       case SLASH:
-        checkNumberOperands(expr.operator, left, right);
-        return (double)left / (double)right;
+        checkNumberOperands(operandType, line, left, right);
+        return Numbers.divide(left, right);
       case STAR:
-        checkNumberOperands(expr.operator, left, right);
-        return (double)left * (double)right;
+        checkNumberOperands(operandType, line, left, right);
+        return Numbers.multiply(left, right);
     }
 
     return null; // unreachable
   }
 
+  private void reportError(RuntimeError error) {
+    System.out.flush();                                                         // Record mode buffers stdout; what was printed first comes first
+    for(ExecutionListener listener : listeners) {
+      listener.runtimeError(error);
+    }
+    Lox.runtimeError(error);
+  }
+
   @Override
   public Object visitCallExpr(Expr.Call expr) {
     Object callee = evaluate(expr.callee);
+    return call(expr, callee, evaluateArguments(expr));
+  }
+
+  @Override
+  public Object visitTracedCallExpr(Expr.TracedCall expr) {
+    Expr.Call call = expr.call;
+    Object callee = evaluate(call.callee);
+    List<Object> arguments = evaluateArguments(call);
 
+    for(ExecutionListener listener : listeners) {
+      listener.callEnter(call, callee, arguments);
+    }
+    Object result = call(call, callee, arguments);
+    for(ExecutionListener listener : listeners) {
+      listener.callExit(call, callee, result);
+    }
+    return result;
+  }
+
+  private List<Object> evaluateArguments(Expr.Call expr) {
     // Evaluating all arguments first prior to function call
     List<Object> arguments = new ArrayList<>();
     for(Expr argument : expr.arguments) {
       arguments.add(evaluate(argument));
     }
+    return arguments;
+  }
 
+  private Object call(Expr.Call expr, Object callee, List<Object> arguments) {
     if(!(callee instanceof LoxCallable)) {
       throw new RuntimeError(
-        expr.paren, "Can only call functions and classes.");
+        expr.line, "Can only call functions and classes.");
     }
 
     LoxCallable function = (LoxCallable)callee;
     // Checking if the number of arguments passed through is equal to the number
     // of arguments that the function was expecting
     if(arguments.size() != function.arity()) {
-      throw new RuntimeError(expr.paren, "Expected " + function.arity() + 
+      throw new RuntimeError(expr.line, "Expected " + function.arity() + 
         " arguments but got " + arguments.size() + ".");
     }
 
-    return function.call(this, arguments);
+    try {
+      return function.call(this, arguments);
+    } catch(RuntimeError error) {
+      if(error.line != RuntimeError.NO_LINE) throw error;
+      throw new RuntimeError(expr.line, error.getMessage());                    // Natives don't know where they were called from
+    }
+  }
+
+  @Override
+  public Object visitCompareExpr(Expr.Compare expr) {
+    return compare(expr);
+  }
+
+  // Also used directly for the condition of an if or while, which saves
+  // boxing the result only to test it.
+  private boolean compare(Expr.Compare expr) {
+    Object left = environment.get(expr.name, expr.nameLine);
+    Object right = expr.other != null ?
+      environment.get(expr.other, expr.otherLine) : expr.constant;
+
+    switch(expr.operator) {
+      case BANG_EQUAL: return !isEqual(left, right);
+      case EQUAL_EQUAL: return isEqual(left, right);
+    }
+    checkNumberOperands(expr.operandType, expr.line, left, right);
+    switch(expr.operator) {
+      case GREATER: return Numbers.greater(left, right);
+      case GREATER_EQUAL: return Numbers.greaterEqual(left, right);
+      case LESS: return Numbers.less(left, right);
+      case LESS_EQUAL: return Numbers.lessEqual(left, right);
+    }
+    throw new AssertionError(expr.operator);
+  }
+
+  @Override
+  public Object visitCompoundExpr(Expr.Compound expr) {
+    Object left = environment.get(expr.name, expr.nameLine);
+    Object right = evaluate(expr.value);
+    return assign(expr.name, expr.line,
+      operate(expr.operator, expr.operatorLine, expr.operandType, left, right));
+  }
+
+  @Override
+  public Object visitIncrementExpr(Expr.Increment expr) {
+    Object value = environment.get(expr.name, expr.nameLine);
+    value = operate(expr.operator, expr.operatorLine, expr.operandType, value,
+      expr.amount);
+    environment.assign(expr.name, expr.line, value, this);                      // Numbers both, so nothing to charge or release
+    return value;
+  }
+
+  @Override
+  public Object visitGetExpr(Expr.Get expr) {
+    Object object = evaluate(expr.object);
+    if(!(object instanceof LoxInstance)) {
+      throw new RuntimeError(expr.line, "Only instances have properties.");
+    }
+
+    LoxInstance instance = (LoxInstance)object;
+    Shape.Cache cache = expr.cache;
+    if(cache == null || cache.shape != instance.shape) {                        // Inline cache miss: look up and remember
+      cache = lookupProperty(instance.shape, expr.name, expr.line);
+      expr.cache = cache;
+    }
+
+    if(cache.slot >= 0) return instance.fields[cache.slot];
+    return cache.method.bind(instance);
+  }
+
+  // Fields shadow methods, as they would if fields lived in a map.
+  private Shape.Cache lookupProperty(Shape shape, String name, int line) {
+    int slot = shape.slot(name);
+    if(slot >= 0) return new Shape.Cache(shape, slot, null, shape);
+
+    LoxFunction method = shape.klass.findMethod(name);
+    if(method == null) {
+      throw new RuntimeError(line, "Undefined property '" + name + "'.");
+    }
+    return new Shape.Cache(shape, -1, method, shape);
   }
 
   @Override
@@ -90,6 +386,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return evaluate(expr.expression);
   }
 
+  @Override
+  public Object visitIndexExpr(Expr.Index expr) {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+
+    LoxArray array = checkArray(expr.line, object);
+    return array.get(checkIndex(expr.line, array, index));
+  }
+
   @Override
   public Object visitLiteralExpr(Expr.Literal expr) {
     return expr.value;
@@ -99,7 +404,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitLogicalExpr(Expr.Logical expr) {
     Object left = evaluate(expr.left);
 
-    if(expr.operator.type == TokenType.OR) {
+    if(expr.operator == TokenType.OR) {
       // If the token type is OR, and the left operand is true, then we short
       // circuit and return true. There is no need to evaluate the other side.
       if(isTruthy(left)) return left;
@@ -114,29 +419,127 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return evaluate(expr.right);
   }
 
+  @Override
+  public Object visitSetExpr(Expr.Set expr) {
+    Object object = evaluate(expr.object);
+    if(!(object instanceof LoxInstance)) {
+      throw new RuntimeError(expr.line, "Only instances have fields.");
+    }
+
+    Object value = evaluate(expr.value);
+    LoxInstance instance = (LoxInstance)object;
+    if(!mayChange(instance.owner)) {
+      throw new RuntimeError(expr.line,
+        "Can't set a field of an instance a parallel callable didn't create.");
+    }
+    Shape.Cache cache = expr.cache;
+    if(cache == null || cache.shape != instance.shape) {
+      Shape shape = instance.shape;
+      int slot = shape.slot(expr.name);
+      cache = slot >= 0 ? new Shape.Cache(shape, slot, null, shape)
+                        : new Shape.Cache(shape, shape.size(), null,           // A new field goes in the next slot
+                            shape.with(expr.name));
+      expr.cache = cache;
+    }
+
+    if(cache.next == cache.shape) {
+      memory.allocate(MemoryAccount.sizeOf(value) -
+        MemoryAccount.sizeOf(instance.fields[cache.slot]), expr.line);
+      instance.fields[cache.slot] = value;
+    } else {
+      memory.allocate(instance.footprintAfterStore(cache.slot) -
+        instance.footprint() + MemoryAccount.sizeOf(value), expr.line);
+      instance.store(cache.next, cache.slot, value);
+    }
+    return value;
+  }
+
+  @Override
+  public Object visitSetIndexExpr(Expr.SetIndex expr) {
+    Object object = evaluate(expr.object);
+    Object index = evaluate(expr.index);
+    Object value = evaluate(expr.value);
+
+    LoxArray array = checkArray(expr.line, object);
+    int i = checkIndex(expr.line, array, index);
+    if(!mayChange(array.owner)) {
+      throw new RuntimeError(expr.line,
+        "Can't change an array a parallel callable didn't create.");
+    }
+    memory.allocate(array.footprintWith(value, array.size()) -                  // Storing a non-number generalizes the array
+      array.footprint() + MemoryAccount.sizeOf(value) - array.payload(i),
+      expr.line);
+    array.set(i, value);
+    return value;
+  }
+
+  @Override
+  public Object visitSuperExpr(Expr.Super expr) {
+    LoxClass superclass = (LoxClass)environment.get("super", expr.line);
+    LoxInstance object = (LoxInstance)environment.get("this", expr.line);
+
+    LoxFunction method = superclass.findMethod(expr.method);
+    if(method == null) {
+      throw new RuntimeError(expr.line,
+        "Undefined property '" + expr.method + "'.");
+    }
+    return method.bind(object);
+  }
+
+  @Override
+  public Object visitThisExpr(Expr.This expr) {
+    return environment.get("this", expr.line);
+  }
+
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
     Object right = evaluate(expr.right);
 
-    switch(expr.operator.type) {
+    switch(expr.operator) {
       case BANG:
         return !isTruthy(right);
       case MINUS:
-        checkNumberOperand(expr.operator, right);
-        return -(double)right;
+        checkNumberOperand(expr, right);
+        return Numbers.negate(right);
     }
 
     return null; // unreachable
   }
 
-  private void checkNumberOperand(Token operator, Object operand) {
-    if(operand instanceof Double) return;
-    throw new RuntimeError(operator, "Operand must be a number.");
+  private void checkNumberOperand(Expr.Unary expr, Object operand) {
+    if(expr.operandType == TypeInference.Type.NUMBER) return;                   // Already proven by TypeInference
+    if(Numbers.isNumber(operand)) return;
+    throw new RuntimeError(expr.line, "Operand must be a number.");
+  }
+
+  private void checkNumberOperands(TypeInference.Type operandType, int line,
+      Object left, Object right) {
+    if(operandType == TypeInference.Type.NUMBER) return;
+    if(Numbers.isNumber(left) && Numbers.isNumber(right)) return;
+    throw new RuntimeError(line, "Operands must be numbers.");
+  }
+
+  private LoxArray checkArray(int line, Object object) {
+    if(object instanceof LoxArray) return (LoxArray)object;
+    throw new RuntimeError(line, "Only arrays can be indexed.");
+  }
+
+  private int checkIndex(int line, LoxArray array, Object index) {
+    index = Numbers.integral(index);
+    if(!(index instanceof Long)) {
+      throw new RuntimeError(line, "Array index must be an integer.");
+    }
+
+    long i = (long)index;
+    if(i < 0 || i >= array.size()) {
+      throw new RuntimeError(line, "Array index out of bounds.");
+    }
+    return (int)i;
   }
 
-  private void checkNumberOperands(Token operator, Object left, Object right) {
-    if(left instanceof Double && right instanceof Double) return;
-    throw new RuntimeError(operator, "Operands must be numbers.");
+  private boolean condition(Expr condition) {
+    if(condition.kind == Expr.COMPARE) return compare((Expr.Compare)condition);
+    return isTruthy(evaluate(condition));
   }
 
   private boolean isTruthy(Object object) {
@@ -148,43 +551,44 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   private boolean isEqual(Object a, Object b) {
     if (a == null && b == null) return true;
     if (a == null) return false;
+    if(Numbers.isNumber(a) && Numbers.isNumber(b)) {
+      return Numbers.equal(a, b);                                               // 1 and 1.0 are the same number
+    }
 
     return a.equals(b);
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if(object == null) return "nil";
 
-    if(object instanceof Double) {
-      String text = object.toString();
-      if(text.endsWith(".0")) {
-        text = text.substring(0, text.length() - 2);                            // Removing the .0 from the end of a double
-      }
-      return text;
-    }
+    if(Numbers.isNumber(object)) return Numbers.toString(object);
 
     return object.toString();
   }
 
-  private Object evaluate(Expr expr) {
+  // Overridden by SwitchInterpreter, which dispatches on the node kind.
+  Object evaluate(Expr expr) {
     return expr.accept(this);
   }
 
-  private void execute(Stmt stmt) {
-    stmt.accept(this);
+  Completion execute(Stmt stmt) {
+    return stmt.accept(this);
   }
 
-  void executeBlock(List<Stmt> statements, Environment environment) {
+  Completion executeBlock(List<Stmt> statements, Environment environment) {
     // Set the *next* environment's previous environment to be the current one.
     Environment previous = this.environment;
     try {
       // Set the current environment to be the *new* one.
       this.environment = environment;
 
-      // Execute all the statements in the current environment.
+      // Execute all the statements in the current environment, stopping early
+      // if one of them breaks out of or continues the enclosing loop.
       for(Stmt statement : statements) {
-        execute(statement);
+        Completion completion = execute(statement);
+        if(completion != null) return completion;
       }
+      return null;
     } finally {
       // Revert the environment stack by setting the previous one to the
       // original previous environment, essentially popping the top-most 
@@ -193,63 +597,231 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
   }
 
+  // Runs a function body in its call environment. Returns the value of the
+  // `return` that ended it, or nil if it ran off the end.
+  Object executeFunction(List<Stmt> body, Environment environment) {
+    memory.allocate(MemoryAccount.sizeOf(environment),                          // The parameters are already bound
+      RuntimeError.NO_LINE);                                                    // The call site fills in the line
+    try {
+      if(executeBlock(body, environment) != Completion.RETURN) return null;
+      Object value = returnValue;
+      returnValue = null;
+      return value;
+    } finally {
+      memory.release(MemoryAccount.sizeOf(environment));
+    }
+  }
+
   @Override
-  public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
+  public Completion visitBlockStmt(Stmt.Block stmt) {
+    Environment block = new Environment(environment, owner());
+    memory.allocate(MemoryAccount.ENVIRONMENT_BYTES, stmt.line);
+    try {
+      return executeBlock(stmt.statements, block);
+    } finally {
+      memory.release(MemoryAccount.sizeOf(block));                              // The block's variables are gone now
+    }
+  }
+
+  @Override
+  public Completion visitBreakStmt(Stmt.Break stmt) {
+    return Completion.BREAK;
+  }
+
+  @Override
+  public Completion visitClassStmt(Stmt.Class stmt) {
+    LoxClass superclass = null;
+    if(stmt.superclass != null) {
+      Object value = evaluate(stmt.superclass);
+      if(!(value instanceof LoxClass)) {
+        throw new RuntimeError(stmt.superclass.line,
+          "Superclass must be a class.");
+      }
+      superclass = (LoxClass)value;
+    }
+
+    memory.allocate(MemoryAccount.BINDING_BYTES, stmt.line);
+    environment.define(stmt.name,
+      stmt.cell ? new Environment.Cell(null, owner()) : null);
+
+    if(superclass != null) {
+      environment = new Environment(environment, owner());                      // Methods find `super` here
+      environment.define("super", superclass);
+    }
+
+    Map<String, LoxFunction> methods = new HashMap<>();
+    for(Stmt.Function method : stmt.methods) {
+      methods.put(method.name, new LoxFunction(method, capture(method),
+        method.name.equals("init")));
+    }
+    LoxClass klass = new LoxClass(stmt.name, superclass, methods);
+
+    if(superclass != null) environment = environment.enclosing;
+    environment.assign(stmt.name, stmt.line, klass, this);
     return null;
   }
 
   @Override
-  public Void visitExpressionStmt(Stmt.Expression stmt) {                       // When you visit an expression statement, evaluate it
+  public Completion visitContinueStmt(Stmt.Continue stmt) {
+    return Completion.CONTINUE;
+  }
+
+  @Override
+  public Completion visitExpressionStmt(Stmt.Expression stmt) {                 // When you visit an expression statement, evaluate it
     evaluate(stmt.expression);
     return null;                                                                // Statements don't return values so we return null here
   }
 
   @Override
-  public Void visitIfStmt(Stmt.If stmt) {
-    if(isTruthy(evaluate(stmt.condition))) {
-      execute(stmt.thenBranch);
+  public Completion visitFunctionStmt(Stmt.Function stmt) {
+    memory.allocate(MemoryAccount.BINDING_BYTES, stmt.line);
+    if(!stmt.cell) {
+      environment.define(stmt.name, new LoxFunction(stmt, capture(stmt), false,
+        memos.forDeclaration(stmt)));
+      return null;
+    }
+
+    environment.define(stmt.name, new Environment.Cell(null, owner()));         // Bound first so the function can capture itself
+    environment.assign(stmt.name, stmt.line,
+      new LoxFunction(stmt, capture(stmt), false, memos.forDeclaration(stmt)),
+      this);
+    return null;
+  }
+
+  // Builds the closure for a function being declared here: a small
+  // environment with just the variables it captures (cells are shared, not
+  // copied) on top of the top-level environment around it.
+  private Environment capture(Stmt.Function function) {
+    Environment topLevel = environment;
+    while(!topLevel.isTopLevel()) topLevel = topLevel.enclosing;
+    if(function.captures.isEmpty()) return topLevel;
+
+    Environment closure = new Environment(topLevel, owner());
+    for(String name : function.captures) {
+      closure.define(name, environment.getCaptured(name, function.line));
+    }
+    memory.allocate(MemoryAccount.ENVIRONMENT_BYTES +                           // Lives as long as the function, so never released
+      MemoryAccount.BINDING_BYTES * function.captures.size(), function.line);
+    return closure;
+  }
+
+  @Override
+  public Completion visitIfStmt(Stmt.If stmt) {
+    if(condition(stmt.condition)) {
+      return execute(stmt.thenBranch);
     } else if(stmt.elseBranch != null) {
-      execute(stmt.elseBranch);
+      return execute(stmt.elseBranch);
     }
     return null;
   }
 
   @Override
-  public Void visitPrintStmt(Stmt.Print stmt) {
+  public Completion visitImportStmt(Stmt.Import stmt) {
+    if(worker) {                                                                // Module instances live in the parent
+      throw new RuntimeError(stmt.line, "Can't import from a parallel callable.");
+    }
+
+    Path path = ModuleLoader.resolve(moduleDir, stmt);
+    Environment module = modules.get(path);
+
+    if(module == null) {
+      ModuleLoader.Module compiled;
+      try {
+        compiled = ModuleLoader.load(path);
+      } catch(IOException error) {
+        throw new RuntimeError(stmt.line,
+          "Could not read module '" + stmt.path + "'.");
+      }
+      if(compiled.hadError()) {
+        for(Scanner.ScanError error : compiled.errors) Lox.error(error);
+        throw new RuntimeError(stmt.line,
+          "Module '" + stmt.path + "' has syntax errors.");
+      }
+
+      // Register the instance before running it so that an import cycle sees
+      // the partially initialized module instead of recursing forever.
+      module = new Environment(globals);
+      module.markTopLevel();
+      modules.put(path, module);
+
+      Path previous = moduleDir;
+      try {
+        moduleDir = path.getParent();
+        executeBlock(compiled.statements, module);
+      } finally {
+        moduleDir = previous;
+      }
+    }
+
+    environment.importAll(module);
+    return null;
+  }
+
+  @Override
+  public Completion visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
     System.out.println(stringify(value));
     return null;
   }
 
   @Override
-  public Void visitVarStmt(Stmt.Var stmt) {
+  public Completion visitReturnStmt(Stmt.Return stmt) {
+    returnValue = stmt.value != null ? evaluate(stmt.value) : null;
+    return Completion.RETURN;
+  }
+
+  @Override
+  public Completion visitTracedStmt(Stmt.Traced stmt) {
+    for(ExecutionListener listener : listeners) {
+      listener.statementEnter(stmt.statement, stmt.line);
+    }
+    Completion completion = execute(stmt.statement);
+    for(ExecutionListener listener : listeners) {
+      listener.statementExit(stmt.statement, stmt.line);
+    }
+    return completion;
+  }
+
+  @Override
+  public Completion visitVarStmt(Stmt.Var stmt) {
     Object value = null;                                                        // Value of variable declaration is always null/nil unless specified
     if(stmt.initializer != null) {
       value = evaluate(stmt.initializer);                                       // Evaluate the variable with an initial value if it has one
     }
 
-    environment.define(stmt.name.lexeme, value);
+    memory.allocate(MemoryAccount.BINDING_BYTES + MemoryAccount.sizeOf(value),
+      stmt.line);
+    environment.define(stmt.name,
+      stmt.cell ? new Environment.Cell(value, owner()) : value);
     return null;
   }
 
   @Override
-  public Void visitWhileStmt(Stmt.While stmt) {
-    while(isTruthy(evaluate(stmt.condition))) {
-      execute(stmt.body);
+  public Completion visitWhileStmt(Stmt.While stmt) {
+    while(condition(stmt.condition)) {
+      Completion completion = execute(stmt.body);
+      if(completion == Completion.BREAK) break;
+      if(completion == Completion.RETURN) return completion;
+      if(stmt.increment != null) evaluate(stmt.increment);                     // Runs after `continue` too
     }
     return null;
   }
 
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
-    Object value = evaluate(expr.value);
-    environment.assign(expr.name, value);
+    return assign(expr.name, expr.line, evaluate(expr.value));
+  }
+
+  private Object assign(String name, int line, Object value) {
+    memory.check(MemoryAccount.sizeOf(value), line);
+    Object previous = environment.assign(name, line, value, this);
+    memory.release(MemoryAccount.sizeOf(previous));
+    memory.allocate(MemoryAccount.sizeOf(value));
     return value;
   }
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return environment.get(expr.name);
+    return environment.get(expr.name, expr.line);
   }
 }
@@ -0,0 +1,181 @@
+package lox;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Copies values from one task's world into a new one, so that tasks share
+// nothing mutable. Numbers, strings, booleans, nil, natives, channels and
+// task handles are immutable (or safe to share) and pass through as they
+// are. Functions and classes are rebuilt on top of copies of the
+// environments they close over, so a copied function that assigns a
+// variable changes the copy. Arrays, maps, instances, open files and
+// anything that closes over one of them can't be copied; copy() returns
+// UNSHAREABLE for them.
+//
+// One Isolate makes one consistent copy: everything copied through it that
+// closed over the same environment or cell shares its copy too.
+class Isolate {
+  static final Object UNSHAREABLE = new Object();
+
+  private final Map<Object, Object> copies = new IdentityHashMap<>();
+  private final Set<String> used;                                               // Top-level names to copy, or null for all
+  private final List<Map.Entry<String, Object>> globals = new ArrayList<>();    // Each use of one, with its value
+
+  Isolate() {
+    used = null;
+  }
+
+  // An Isolate for starting a task with `roots`. Top-level environments are
+  // copied with only the variables the roots use, directly or through the
+  // functions and classes they use or close over, plus the natives, which
+  // cost nothing to share and which modules the task imports expect.
+  Isolate(List<Object> roots) {
+    used = new HashSet<>();
+    Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    for(Object root : roots) use(root, visited);
+  }
+
+  private void use(Object value, Set<Object> visited) {
+    if(value instanceof LoxClass) {
+      for(LoxClass klass = (LoxClass)value; klass != null;
+          klass = klass.superclass) {
+        if(!visited.add(klass)) return;
+        for(LoxFunction method : klass.methods().values()) use(method, visited);
+      }
+      return;
+    }
+    if(!(value instanceof LoxFunction) || !visited.add(value)) return;
+
+    LoxFunction function = (LoxFunction)value;
+    Stmt.Function declaration = function.declaration();
+    for(String name : declaration.globals) {
+      used.add(name);
+      Object global;
+      try {
+        global = function.closure().get(name, declaration.line);
+      } catch(RuntimeError error) {
+        continue;                                                               // Undefined here, and in the task the same way
+      }
+      globals.add(new AbstractMap.SimpleEntry<>(name, global));
+      use(global, visited);
+    }
+    for(Environment environment = function.closure();                           // What it captured may use more of them
+        !environment.isTopLevel(); environment = environment.enclosing) {
+      for(Object binding : environment.bindings().values()) {
+        use(binding instanceof Environment.Cell ?
+          ((Environment.Cell)binding).value : binding, visited);
+      }
+    }
+  }
+
+  Object copy(Object value) {
+    if(value == null || value instanceof Long || value instanceof Double ||
+        value instanceof String || value instanceof Boolean ||
+        value instanceof NativeFunction || value instanceof LoxChannel ||
+        value instanceof LoxTask) {
+      return value;
+    }
+
+    Object copied = copies.get(value);
+    if(copied != null) return copied;
+    if(value instanceof LoxFunction) return copyFunction((LoxFunction)value);
+    if(value instanceof LoxClass) return copyClass((LoxClass)value);
+    return UNSHAREABLE;
+  }
+
+  // The first top-level variable the roots use whose value can't be
+  // copied; null if there is none. copyEnvironment() would leave such a
+  // variable out of a task's globals, so spawn() checks for one before
+  // starting the task.
+  String unshareableGlobal() {
+    for(Map.Entry<String, Object> global : globals) {
+      if(copy(global.getValue()) == UNSHAREABLE) return global.getKey();
+    }
+    return null;
+  }
+
+  // A top-level environment (the globals or a module's) keeps only the
+  // bindings that can be copied, and that the roots use; a task that reads
+  // one of the others gets an undefined variable error. Anything else is
+  // all or nothing.
+  Environment copyEnvironment(Environment environment) {
+    Environment copied = (Environment)copies.get(environment);
+    if(copied != null) return copied;
+
+    boolean topLevel = environment.isTopLevel();
+    Environment enclosing = null;
+    if(environment.enclosing != null) {
+      enclosing = copyEnvironment(environment.enclosing);
+      if(enclosing == null) return null;
+    }
+    copied = new Environment(enclosing);
+    if(topLevel && enclosing != null) copied.markTopLevel();
+    copies.put(environment, copied);                                            // Before the bindings, which may close over it
+
+    for(Map.Entry<String, Object> binding : environment.bindings().entrySet()) {
+      Object value = binding.getValue();
+      if(topLevel && used != null && !used.contains(binding.getKey()) &&
+          !(value instanceof NativeFunction)) {
+        continue;
+      }
+      Object copy = value instanceof Environment.Cell ?
+        copyCell((Environment.Cell)value) : copy(value);
+      if(copy == UNSHAREABLE) {
+        if(topLevel) continue;
+        copies.remove(environment);
+        return null;
+      }
+      copied.bind(binding.getKey(), copy);
+    }
+    return copied;
+  }
+
+  private Object copyCell(Environment.Cell cell) {
+    Object copied = copies.get(cell);
+    if(copied != null) return copied;
+    Object value = copy(cell.value);
+    if(value == UNSHAREABLE) return UNSHAREABLE;
+    Environment.Cell copy = new Environment.Cell(value);
+    copies.put(cell, copy);
+    return copy;
+  }
+
+  private Object copyFunction(LoxFunction function) {
+    Environment closure = copyEnvironment(function.closure());
+    if(closure == null) return UNSHAREABLE;
+    Object copied = copies.get(function);                                       // The closure may have copied it already
+    if(copied != null) return copied;
+    LoxFunction copy = function.withClosure(closure);
+    copies.put(function, copy);
+    return copy;
+  }
+
+  private Object copyClass(LoxClass klass) {
+    LoxClass superclass = null;
+    if(klass.superclass != null) {
+      Object copied = copy(klass.superclass);
+      if(copied == UNSHAREABLE) return UNSHAREABLE;
+      superclass = (LoxClass)copied;
+    }
+
+    Map<String, LoxFunction> methods = new HashMap<>();
+    LoxClass copy = new LoxClass(klass.name, superclass, methods);
+    copies.put(klass, copy);                                                    // Methods may refer to their own class
+    for(Map.Entry<String, LoxFunction> method : klass.methods().entrySet()) {
+      Object copied = copy(method.getValue());
+      if(copied == UNSHAREABLE) {
+        copies.remove(klass);
+        return UNSHAREABLE;
+      }
+      methods.put(method.getKey(), (LoxFunction)copied);
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,227 @@
+package lox;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// Native functions for reading and writing JSON.
+//
+//   jsonParse(string)       -> the value, with objects as maps
+//   jsonStringify(value)    -> JSON text for nil, booleans, numbers, strings,
+//                              and arrays and maps of those
+//   jsonWrite(file, value)     writes the same text to a file as it goes
+//   jsonEvents(source)      -> event stream over a file open for reading, or
+//                              a string
+//   jsonNext(events)        -> "startObject", "endObject", "startArray",
+//                              "endArray", "key" or "value", or nil at the end
+//   jsonValue(events)       -> the key or value of the last event
+//   jsonRead(events)        -> the whole value that the last event started
+//
+// The event stream reads its file a chunk at a time, so it can walk a
+// document of any size; jsonRead() builds just the part the script wants,
+// say one record of a huge top-level array:
+//
+//   var events = jsonEvents(open("records.json"));
+//   jsonNext(events);                                 // "startArray"
+//   while(jsonNext(events) != "endArray") handle(jsonRead(events));
+//
+// A stream may hold several top-level values separated by whitespace, as
+// JSON Lines files do. Map keys are written in table order; number keys
+// become strings.
+class JsonNatives {
+  private static final int FLUSH_AT = 64 * 1024;                                // jsonWrite() buffers this much text
+  private static final String[] EVENT_NAMES = {                                 // By JsonParser.Event ordinal
+    "startObject", "endObject", "startArray", "endArray", "key", "value"
+  };
+
+  private JsonNatives() {}
+
+  static void define(Environment globals) {
+    new NativeFunction("jsonParse", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        if(!(arguments.get(0) instanceof String)) {
+          throw new RuntimeError("Argument must be a string.");
+        }
+        return JsonParser.parse((String)arguments.get(0), interpreter);
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("jsonStringify", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Encoder encoder = new Encoder(null);
+        encoder.encode(arguments.get(0));
+        return encoder.out.toString();
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("jsonWrite", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxWriter writer = FileNatives.checkWriter(arguments.get(0));
+        Encoder encoder = new Encoder(writer);
+        encoder.encode(arguments.get(1));
+        encoder.flush();
+        return null;
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("jsonEvents", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object source = arguments.get(0);
+        if(source instanceof String) return new JsonParser((String)source);
+        return new JsonParser(FileNatives.checkReader(source));
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("jsonNext", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        JsonParser.Event event = checkEvents(arguments.get(0)).next();
+        return event != null ? EVENT_NAMES[event.ordinal()] : null;
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("jsonValue", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return checkEvents(arguments.get(0)).value();
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("jsonRead", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return checkEvents(arguments.get(0)).read(interpreter);
+      }
+    }.defineIn(globals);
+  }
+
+  private static JsonParser checkEvents(Object value) {
+    if(value instanceof JsonParser) {
+      JsonParser events = (JsonParser)value;
+      if(events.reader() == null || !events.reader().isClosed()) return events;
+    }
+    throw new RuntimeError("Argument must be an open JSON event stream.");
+  }
+
+  // Writes JSON text into `out`, handing it to `writer` (if there is one)
+  // whenever enough has built up.
+  private static final class Encoder {
+    final StringBuilder out = new StringBuilder();
+    private final LoxWriter writer;
+    private final Set<Object> enclosing =                                       // Arrays and maps being written, to catch cycles
+      Collections.newSetFromMap(new IdentityHashMap<>());
+
+    Encoder(LoxWriter writer) {
+      this.writer = writer;
+    }
+
+    void encode(Object value) {
+      if(value == null) {
+        out.append("null");
+      } else if(value instanceof Boolean) {
+        out.append((boolean)value);
+      } else if(Numbers.isNumber(value)) {
+        number(value);
+      } else if(value instanceof String) {
+        string((String)value);
+      } else if(value instanceof LoxArray) {
+        array((LoxArray)value);
+      } else if(value instanceof LoxMap) {
+        map((LoxMap)value);
+      } else {
+        throw new RuntimeError(
+          "Can't encode " + Interpreter.stringify(value) + " as JSON.");
+      }
+      if(writer != null && out.length() >= FLUSH_AT) flush();
+    }
+
+    private void number(Object value) {
+      double number = Numbers.toDouble(value);
+      if(Double.isNaN(number) || Double.isInfinite(number)) {
+        throw new RuntimeError("Can't encode NaN or infinity as JSON.");
+      }
+      out.append(Numbers.toString(value));                                      // Always valid JSON once those are ruled out
+    }
+
+    private void array(LoxArray array) {
+      enter(array);
+      out.append('[');
+      for(int i = 0; i < array.size(); i++) {
+        if(i > 0) out.append(',');
+        encode(array.get(i));
+      }
+      out.append(']');
+      enclosing.remove(array);
+    }
+
+    private void map(LoxMap map) {
+      enter(map);
+      out.append('{');
+      boolean[] first = { true };
+      map.forEach((key, value) -> {
+        if(!first[0]) out.append(',');
+        first[0] = false;
+        if(key instanceof String) {
+          string((String)key);
+        } else if(Numbers.isNumber(key)) {
+          string(Numbers.toString(key));
+        } else {
+          throw new RuntimeError(
+            "JSON object keys must be strings or numbers.");
+        }
+        out.append(':');
+        encode(value);
+      });
+      out.append('}');
+      enclosing.remove(map);
+    }
+
+    private void enter(Object container) {
+      if(!enclosing.add(container)) {
+        throw new RuntimeError(
+          "Can't encode a structure that contains itself as JSON.");
+      }
+    }
+
+    private void string(String text) {
+      out.append('"');
+      int start = 0;                                                            // Copy runs that need no escaping in one go
+      for(int i = 0; i < text.length(); i++) {
+        char c = text.charAt(i);
+        if(c >= 0x20 && c != '"' && c != '\\') continue;
+
+        out.append(text, start, i);
+        start = i + 1;
+        switch(c) {
+          case '"':  out.append("\\\""); break;
+          case '\\': out.append("\\\\"); break;
+          case '\b': out.append("\\b"); break;
+          case '\f': out.append("\\f"); break;
+          case '\n': out.append("\\n"); break;
+          case '\r': out.append("\\r"); break;
+          case '\t': out.append("\\t"); break;
+          default:
+            out.append(String.format("\\u%04x", (int)c));
+            break;
+        }
+      }
+      out.append(text, start, text.length());
+      out.append('"');
+    }
+
+    void flush() {
+      try {
+        writer.write(out.toString());
+      } catch(IOException error) {
+        throw new RuntimeError("Could not write " + writer + ".");
+      }
+      out.setLength(0);
+    }
+  }
+}
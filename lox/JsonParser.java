@@ -0,0 +1,399 @@
+package lox;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+// Pull parser for JSON. next() returns one event at a time, so a document
+// far bigger than memory can be walked while holding only the chunk being
+// parsed and the current nesting. read() turns the value whose first event
+// was just returned into Lox values: objects become maps and arrays become
+// arrays, built with an explicit stack so nesting depth isn't limited by the
+// Java stack.
+//
+// The input is either a whole string or a file read through LoxReader a
+// chunk at a time. Any number of top-level values may follow one another
+// (as in JSON Lines), separated by whitespace; next() returns null once the
+// input is used up.
+//
+// Numbers are converted straight from their digits: integers become Longs,
+// and decimals with up to 15 significant digits and a small exponent are
+// computed exactly with one double multiply or divide. Only the others go
+// through Double.parseDouble().
+class JsonParser {
+  enum Event {
+    START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY,
+    KEY,                                                                        // value() is the key
+    VALUE                                                                       // value() is a string, number, boolean or nil
+  }
+
+  private static final int CHUNK = 64 * 1024;
+  private static final double[] POWERS_OF_TEN = {                               // Every one of these is exact
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final LoxReader reader;                                               // Null when parsing a string
+  private String chunk;
+  private int pos = 0;
+  private long consumed = 0;                                                    // Chars in the chunks before this one
+
+  private char[] open = new char[16];                                           // '{' or '[' for each enclosing container
+  private int depth = 0;
+  private boolean afterValue = false;                                           // An element just ended; ',' or a closer comes next
+  private boolean afterKey = false;                                             // An object key and ':' were just read
+
+  private Event event = null;
+  private Object value = null;
+  private final StringBuilder text = new StringBuilder();                       // Reused for escaped strings and long numbers
+
+  JsonParser(String source) {
+    this.reader = null;
+    this.chunk = source;
+  }
+
+  JsonParser(LoxReader reader) {
+    this.reader = reader;
+    this.chunk = "";
+  }
+
+  // Parses a string holding exactly one JSON value.
+  static Object parse(String source, Interpreter interpreter) {
+    JsonParser parser = new JsonParser(source);
+    if(parser.next() == null) throw parser.unexpected(-1, "a value");
+    Object value = parser.read(interpreter);
+    int c = parser.skipWhitespace();
+    if(c != -1) throw parser.unexpected(c, "the end of the input");
+    return value;
+  }
+
+  Event event() {
+    return event;
+  }
+
+  Object value() {
+    return value;
+  }
+
+  LoxReader reader() {
+    return reader;
+  }
+
+  Event next() {
+    value = null;
+    event = advance();
+    return event;
+  }
+
+  private Event advance() {
+    long before = consumed + pos;
+    int c = skipWhitespace();
+    if(depth > 0 && !afterKey) {
+      char opener = open[depth - 1];
+      if(c == (opener == '{' ? '}' : ']')) {
+        pos++;
+        depth--;
+        afterValue = true;
+        return opener == '{' ? Event.END_OBJECT : Event.END_ARRAY;
+      }
+      if(afterValue) {
+        if(c != ',') {
+          throw unexpected(c, opener == '{' ? "',' or '}'" : "',' or ']'");
+        }
+        pos++;
+        afterValue = false;
+        c = skipWhitespace();
+      }
+      if(opener == '{') {
+        if(c != '"') throw unexpected(c, "a string key");
+        pos++;
+        value = string();
+        if(skipWhitespace() != ':') throw unexpected(peek(), "':'");
+        pos++;
+        afterKey = true;
+        return Event.KEY;
+      }
+    } else if(depth == 0) {
+      if(c == -1) return null;                                                  // End of the input
+      if(afterValue && consumed + pos == before) {                              // Else "truefalse" would be two values
+        throw unexpected(c, "whitespace between top-level values");
+      }
+    }
+
+    afterKey = false;
+    switch(c) {
+      case '{':
+      case '[':
+        pos++;
+        if(depth == open.length) open = Arrays.copyOf(open, depth * 2);
+        open[depth++] = (char)c;
+        afterValue = false;
+        return c == '{' ? Event.START_OBJECT : Event.START_ARRAY;
+      case '"':
+        pos++;
+        value = string();
+        break;
+      case 't': literal("true"); value = true; break;
+      case 'f': literal("false"); value = false; break;
+      case 'n': literal("null"); value = null; break;
+      default:
+        if(c == '-' || (c >= '0' && c <= '9')) {
+          value = number();
+          break;
+        }
+        throw unexpected(c, "a value");
+    }
+    afterValue = true;
+    return Event.VALUE;
+  }
+
+  // Builds the Lox value for the event just returned: the scalar itself, or
+  // the whole object or array that starts there. Each container and element
+  // is charged to the interpreter's memory as it is added, so a document too
+  // big for the quota fails partway instead of after it is all in memory.
+  Object read(Interpreter interpreter) {
+    if(event == Event.VALUE) return value;
+    if(event != Event.START_OBJECT && event != Event.START_ARRAY) {
+      throw new RuntimeError("Can only read a JSON value or the start of one.");
+    }
+
+    Object root = container(interpreter, event);
+    Deque<Object> containers = new ArrayDeque<>();
+    containers.push(root);
+    String key = null;
+    while(!containers.isEmpty()) {
+      Event next = next();
+      switch(next) {
+        case KEY:
+          key = (String)value;
+          break;
+        case VALUE:
+          add(interpreter, containers.peek(), key, value);
+          break;
+        case START_OBJECT:
+        case START_ARRAY: {
+          Object child = container(interpreter, next);
+          add(interpreter, containers.peek(), key, child);
+          containers.push(child);
+          break;
+        }
+        default:                                                                // END_OBJECT or END_ARRAY
+          containers.pop();
+          break;
+      }
+    }
+    return root;
+  }
+
+  private static Object container(Interpreter interpreter, Event event) {
+    if(event == Event.START_OBJECT) {
+      ArrayNatives.charge(interpreter, LoxMap.emptyFootprint());
+      LoxMap map = new LoxMap();
+      map.owner = interpreter.owner();
+      return map;
+    }
+    ArrayNatives.charge(interpreter, LoxArray.footprint(0));
+    LoxArray array = new LoxArray();
+    array.owner = interpreter.owner();
+    return array;
+  }
+
+  // Charges for the element before adding it, the way put() and push() do.
+  private static void add(Interpreter interpreter, Object container,
+                          String key, Object value) {
+    long bytes = MemoryAccount.sizeOf(value);
+    if(container instanceof LoxMap) {
+      LoxMap map = (LoxMap)container;
+      bytes += map.footprintAfterPut() - map.footprint();
+      bytes += map.has(key) ? -MemoryAccount.sizeOf(map.get(key))              // A repeated key replaces the value
+                            : MemoryAccount.sizeOf(key);
+      ArrayNatives.charge(interpreter, bytes);
+      map.put(key, value);
+    } else {
+      LoxArray array = (LoxArray)container;
+      bytes += array.footprintWith(value, array.size() + 1) - array.footprint();
+      ArrayNatives.charge(interpreter, bytes);
+      array.add(value);
+    }
+  }
+
+  // Called just past the opening quote.
+  private String string() {
+    int start = pos;
+    for(int i = start; i < chunk.length(); i++) {                               // Fast path: no escapes, all in this chunk
+      char c = chunk.charAt(i);
+      if(c == '"') {
+        pos = i + 1;
+        return chunk.substring(start, i);
+      }
+      if(c == '\\' || c < 0x20) break;
+    }
+
+    text.setLength(0);
+    for(;;) {
+      int c = peek();
+      if(c == -1) throw error("Unterminated string");
+      pos++;
+      if(c == '"') return text.toString();
+      if(c < 0x20) throw error("Unescaped control character in string");
+      if(c != '\\') {
+        text.append((char)c);
+        continue;
+      }
+
+      int escape = peek();
+      pos++;
+      switch(escape) {
+        case '"':  text.append('"'); break;
+        case '\\': text.append('\\'); break;
+        case '/':  text.append('/'); break;
+        case 'b':  text.append('\b'); break;
+        case 'f':  text.append('\f'); break;
+        case 'n':  text.append('\n'); break;
+        case 'r':  text.append('\r'); break;
+        case 't':  text.append('\t'); break;
+        case 'u': {
+          int code = 0;
+          for(int i = 0; i < 4; i++) {
+            int digit = Character.digit(peek(), 16);
+            if(digit < 0) throw error("Invalid \\u escape");
+            pos++;
+            code = code * 16 + digit;
+          }
+          text.append((char)code);                                              // Surrogate pairs arrive as two escapes
+          break;
+        }
+        default:
+          pos--;
+          throw error("Invalid escape in string");
+      }
+    }
+  }
+
+  private Object number() {
+    text.setLength(0);
+    boolean negative = consume('-');
+    long mantissa = 0;
+    int digits = 0;                                                             // Significant digits in `mantissa`
+    int scale = 0;                                                              // Power of ten to apply to it
+
+    int c = peek();
+    if(c == '0') {
+      consume('0');
+    } else if(c >= '1' && c <= '9') {
+      while((c = peek()) >= '0' && c <= '9') {
+        consume((char)c);
+        if(digits < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          digits++;
+        } else {
+          scale++;                                                              // Digits beyond 18 only go to parseDouble()
+          digits++;
+        }
+      }
+    } else {
+      throw unexpected(c, "a digit");
+    }
+    if(peek() >= '0' && peek() <= '9') throw error("Leading zero in number");
+
+    boolean integral = true;
+    if(peek() == '.') {
+      integral = false;
+      consume('.');
+      if(!((c = peek()) >= '0' && c <= '9')) throw unexpected(c, "a digit");
+      while((c = peek()) >= '0' && c <= '9') {
+        consume((char)c);
+        if(digits < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          if(mantissa != 0) digits++;                                           // Leading zeros of 0.001 aren't significant
+          scale--;
+        } else {
+          digits++;
+        }
+      }
+    }
+    if(peek() == 'e' || peek() == 'E') {
+      integral = false;
+      consume((char)peek());
+      boolean negativeExponent = consume('-');
+      if(!negativeExponent) consume('+');
+      if(!((c = peek()) >= '0' && c <= '9')) throw unexpected(c, "a digit");
+      int exponent = 0;
+      while((c = peek()) >= '0' && c <= '9') {
+        consume((char)c);
+        if(exponent < 100_000) exponent = exponent * 10 + (c - '0');            // Saturates; parseDouble() copes
+      }
+      scale += negativeExponent ? -exponent : exponent;
+    }
+
+    if(digits <= 15) {
+      if(integral && !(negative && mantissa == 0)) {                            // -0 has to stay a double
+        return Numbers.valueOf(negative ? -mantissa : mantissa);
+      }
+      if(scale >= -22 && scale <= 22) {
+        double result = scale < 0 ? mantissa / POWERS_OF_TEN[-scale]
+                                  : mantissa * POWERS_OF_TEN[scale];
+        return Numbers.valueOf(negative ? -result : result);
+      }
+    }
+    return Numbers.valueOf(Double.parseDouble(text.toString()));
+  }
+
+  private void literal(String word) {
+    for(int i = 0; i < word.length(); i++) {
+      if(peek() != word.charAt(i)) throw unexpected(peek(), "'" + word + "'");
+      pos++;
+    }
+  }
+
+  // Consumes `expected` if it comes next, keeping it for number() in case
+  // parseDouble() is needed.
+  private boolean consume(char expected) {
+    if(peek() != expected) return false;
+    pos++;
+    text.append(expected);
+    return true;
+  }
+
+  private int skipWhitespace() {
+    for(;;) {
+      int c = peek();
+      if(c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+      pos++;
+    }
+  }
+
+  // The next char without consuming it, or -1 at the end of the input.
+  private int peek() {
+    if(pos < chunk.length()) return chunk.charAt(pos);
+    if(reader == null) return -1;
+
+    String next;
+    try {
+      next = reader.readChunk(CHUNK);
+    } catch(IOException error) {
+      throw new RuntimeError("Could not read " + reader + ".");
+    }
+    if(next == null) return -1;
+    consumed += chunk.length();
+    chunk = next;
+    pos = 0;
+    return chunk.charAt(0);
+  }
+
+  private RuntimeError unexpected(int c, String expected) {
+    if(c == -1) return error("Expected " + expected + " but the input ended");
+    return error("Expected " + expected + " but found '" + (char)c + "'");
+  }
+
+  private RuntimeError error(String message) {
+    return new RuntimeError(message + " at offset " + (consumed + pos) +
+      " of JSON.");
+  }
+
+  @Override
+  public String toString() {
+    return reader != null ? "<json " + reader + ">" : "<json>";
+  }
+}
@@ -0,0 +1,43 @@
+package lox;
+
+import java.util.BitSet;
+
+// Listener that records which statement lines ran. Lines come from the
+// Stmt.Traced wrappers, so counting one costs a bit set per statement run.
+class LineCoverage implements ExecutionListener {
+  private final BitSet lines = new BitSet();
+  private final BitSet covered = new BitSet();
+
+  @Override
+  public synchronized void programLoaded(BitSet lines) {
+    this.lines.or(lines);
+  }
+
+  @Override
+  public synchronized void statementEnter(Stmt stmt, int line) {
+    covered.set(line);
+  }
+
+  // "covered 7 of 9 lines; not run: 4, 11-12"
+  synchronized String report() {
+    BitSet missed = (BitSet)lines.clone();
+    missed.andNot(covered);
+
+    StringBuilder builder = new StringBuilder();
+    builder.append("covered ").append(lines.cardinality() - missed.cardinality())
+      .append(" of ").append(lines.cardinality()).append(" lines");
+    if(missed.isEmpty()) return builder.toString();
+
+    builder.append("; not run: ");
+    int start = missed.nextSetBit(0);
+    while(start >= 0) {
+      int end = start;
+      while(missed.get(end + 1)) end++;                                         // Extend over the run of missed lines
+      if(start != missed.nextSetBit(0)) builder.append(", ");
+      builder.append(start);
+      if(end > start) builder.append("-").append(end);
+      start = missed.nextSetBit(end + 1);
+    }
+    return builder.toString();
+  }
+}
@@ -1,21 +1,72 @@
 package lox;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
+  static final String VERSION = "jlox-2";                                       // Bump when snapshots can't be shared
+  private static final Interpreter interpreter = new SwitchInterpreter();
   static boolean hadError = false;                                              // Marks if code has errors
   static boolean hadRuntimeError = false;
+  private static LineCoverage coverage = null;                                  // Set by --coverage
+  private static boolean incremental = false;                                   // Set by --incremental
+  private static boolean memoStats = false;                                     // Set by --memo-stats
 
   public static void main(String[] args) throws IOException {
-    if(args.length > 1) {
-      System.out.println("Usage: jlox [script]");
+    String end = null;
+    while(args.length >= 1 && args[0].startsWith("--")) {
+      if(args[0].equals("--coverage")) {
+        coverage = new LineCoverage();                                          // Instruments everything compiled from here on
+        interpreter.addListener(coverage);
+        args = Arrays.copyOfRange(args, 1, args.length);
+        continue;
+      }
+      if(args[0].equals("--incremental")) {
+        incremental = true;                                                     // Only affects the main script
+        args = Arrays.copyOfRange(args, 1, args.length);
+        continue;
+      }
+      if(args[0].equals("--memo-stats")) {
+        memoStats = true;
+        args = Arrays.copyOfRange(args, 1, args.length);
+        continue;
+      }
+
+      if(args.length < 2) break;
+      if(args[0].equals("--prelude")) {
+        runPrelude(args[1]);                                                    // Restores globals from a snapshot if possible
+      } else if(args[0].equals("--memory-quota")) {
+        interpreter.memory.setQuota(Long.parseLong(args[1]));                   // Bytes; also turns on the memory report
+      } else if(args[0].equals("--memo-size")) {
+        interpreter.memos.setCapacity(Integer.parseInt(args[1]));               // Entries per pure function; 0 turns memoization off
+      } else if(args[0].equals("--end")) {
+        end = args[1];                                                          // Runs after the last record
+      } else {
+        break;
+      }
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+
+    if(args.length >= 2 && args.length <= 3 && args[0].equals("--records")) {
+      runRecords(args[1], args.length == 3 ? args[2] : null, end);
+    } else if(args.length > 1 || end != null) {
+      System.out.println(
+        "Usage: jlox [options] [script]\n" +
+        "       jlox [options] [--end file] --records script [input]\n" +
+        "Options: --prelude file, --memory-quota bytes, --coverage,\n" +
+        "         --incremental, --memo-size entries, --memo-stats");
       System.exit(64);
     } else if(args.length == 1) {
       runFile(args[0]);                                                         // Execute specified file
@@ -25,13 +76,110 @@ public class Lox {
   }
 
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));                         // Parse file -> bytes -> string
-    run(new String(bytes, Charset.defaultCharset()));
+    interpreter.setModuleDir(Paths.get(path).toAbsolutePath().getParent());    // Imports are relative to the script
+    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    if(incremental) {
+      runIncremental(new String(bytes, Charset.defaultCharset()));
+    } else {
+      run(bytes);
+    }
+    reportMemory();
+    reportCoverage();
+    reportMemo();
 
     if(hadError) System.exit(65);                                               // Exits if error occurred while running
     if(hadRuntimeError) System.exit(70);
   }
 
+  // Record mode, like awk: the script is compiled once and then run for each
+  // line of the input (stdin if no input file is given), with the line bound
+  // to the global `line` and its 1-based number to `nr`. Variables the script
+  // declares at the top level last for one record; state that should carry
+  // over goes in globals defined by a --prelude, and an --end script can
+  // report it after the last record. Output is buffered and flushed at the
+  // end.
+  private static void runRecords(String path, String input, String end)
+      throws IOException {
+    interpreter.setModuleDir(Paths.get(path).toAbsolutePath().getParent());
+    List<Stmt> statements = compile(Files.readAllBytes(Paths.get(path)));
+    if(hadError) System.exit(65);
+
+    PrintStream console = System.out;
+    System.setOut(new PrintStream(new BufferedOutputStream(
+      new FileOutputStream(FileDescriptor.out), 1 << 16), false));
+
+    LoxReader file = input != null ? new LoxReader(Paths.get(input)) : null;
+    BufferedReader stdin = input != null ? null : new BufferedReader(
+      new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16);      // Like LoxReader reads files
+    try {
+      long nr = 0;
+      for(;;) {
+        String line = file != null ? file.readLine() : stdin.readLine();
+        if(line == null) break;
+        interpreter.globals.define("line", line);
+        interpreter.globals.define("nr", ++nr);
+        if(!interpreter.interpretRecord(statements)) break;                    // Stop at the first runtime error, as awk does
+      }
+      if(end != null && !hadRuntimeError) {
+        interpreter.setModuleDir(Paths.get(end).toAbsolutePath().getParent());
+        run(Files.readAllBytes(Paths.get(end)));
+      }
+    } finally {
+      if(file != null) file.close();
+      System.out.flush();
+      System.setOut(console);
+    }
+    reportMemory();
+    reportCoverage();
+    reportMemo();
+
+    if(hadError) System.exit(65);
+    if(hadRuntimeError) System.exit(70);
+  }
+
+  // Runs the prelude and saves the globals it defines to <prelude>.snapshot.
+  // Later runs load that snapshot instead, as long as the prelude hasn't
+  // changed since.
+  private static void runPrelude(String path) throws IOException {
+    byte[] bytes = Files.readAllBytes(Paths.get(path));
+    String hash = Snapshot.hash(bytes);
+    Path snapshot = Paths.get(path + ".snapshot");
+    if(Snapshot.restore(snapshot, hash, () -> compile(bytes), interpreter)) {
+      return;                                                                   // Compiled only if it declared functions
+    }
+
+    interpreter.setModuleDir(Paths.get(path).toAbsolutePath().getParent());
+    List<Stmt> statements = compile(bytes);
+    if(hadError) System.exit(65);
+    interpreter.interpret(statements);
+    if(hadRuntimeError) System.exit(70);
+
+    try {
+      Snapshot.write(snapshot, hash, statements, interpreter);
+    } catch(IOException error) {
+      System.err.println("Could not write snapshot: " + error.getMessage());    // Not fatal, the prelude just runs again next time
+    }
+  }
+
+  private static void reportCoverage() {
+    if(coverage == null) return;
+    System.err.println("[coverage] " + coverage.report());
+  }
+
+  private static void reportMemo() {
+    if(!memoStats) return;
+    for(String line : interpreter.memos.report()) {
+      System.err.println("[memo] " + line);
+    }
+  }
+
+  private static void reportMemory() {
+    MemoryAccount memory = interpreter.memory;
+    if(memory.quota() == Long.MAX_VALUE) return;
+    System.err.println("[memory] charged at most " + memory.maxCharged() +
+      " of " + memory.quota() + " bytes");
+  }
+
   private static void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);                 // Setup for reading from command line
     BufferedReader reader = new BufferedReader(input);
@@ -46,17 +194,84 @@ public class Lox {
   }
 
   private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();                                  // Converts string into tokens
+    List<Stmt> statements = compile(source);
+    if(hadError) return;
 
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
+    interpreter.interpret(statements);
+  }
 
+  private static void run(byte[] bytes) {
+    List<Stmt> statements = compile(bytes);
     if(hadError) return;
 
     interpreter.interpret(statements);
   }
 
+  // Runs each top-level declaration as soon as it has been parsed and then
+  // drops it, so output starts before the rest of a big script has even been
+  // scanned and its whole tree is never in memory at once. The catch is that
+  // declarations ahead of a syntax error have already run by the time it's
+  // found, where run() wouldn't have run anything. Nothing after the error
+  // runs, but parsing carries on so that every syntax error still gets
+  // reported. A runtime error stops execution in the same way.
+  private static void runIncremental(String source) {
+    Parser parser = new Parser(new Scanner(source));                            // Scanned lazily, so never in parallel
+    Resolver resolver = new Resolver();                                         // Both keep state across declarations
+    TypeInference types = new TypeInference();
+    Fusion fusion = new Fusion();
+    boolean running = true;
+
+    while(parser.hasNext()) {
+      Stmt statement = parser.next();
+      if(hadError || !running) continue;                                        // Just looking for more syntax errors
+
+      List<Stmt> statements = fusion.fuse(List.of(statement));
+      statements = interpreter.instrument(statements);
+      resolver.resolve(statements);
+      types.analyze(statements);
+      running = interpreter.interpretStatement(statements.get(0));
+    }
+  }
+
+  // UTF-8 files are scanned as they are, without decoding them first.
+  static List<Stmt> compile(byte[] bytes) {
+    if(!Charset.defaultCharset().equals(StandardCharsets.UTF_8)) {
+      return compile(new String(bytes, Charset.defaultCharset()));
+    }
+
+    List<Token> tokens;
+    if(bytes.length >= ParallelScanner.PARALLEL_THRESHOLD) {
+      tokens = new ParallelScanner(bytes).scanTokens();
+    } else {
+      tokens = new ByteScanner(bytes).scanTokens();
+    }
+    return compile(tokens);
+  }
+
+  private static List<Stmt> compile(String source) {
+    List<Token> tokens;                                                         // Converts string into tokens
+    if(source.length() >= ParallelScanner.PARALLEL_THRESHOLD) {
+      tokens = new ParallelScanner(source).scanTokens();                        // Big inputs are split and scanned on all cores
+    } else {
+      tokens = new Scanner(source).scanTokens();
+    }
+    return compile(tokens);
+  }
+
+  // Parses and type-checks. Check hadError before running the result.
+  private static List<Stmt> compile(List<Token> tokens) {
+    Parser parser = new Parser(tokens);
+    List<Stmt> statements = parser.parse();
+
+    if(hadError) return statements;
+
+    statements = new Fusion().fuse(statements);                                 // Superinstructions for the common loop patterns
+    statements = interpreter.instrument(statements);                            // Unchanged unless a listener is attached
+    new Resolver().resolve(statements);                                         // Works out what each closure captures
+    new TypeInference().analyze(statements);                                    // Lets the interpreter skip proven type checks
+    return statements;
+  }
+
   static void error(int line, String message) {                                 // Very basic error handling
     report(line, "", message);
   }
@@ -67,16 +282,22 @@ public class Lox {
   }
 
   static void error(Token token, String message) {
-    if(token.type == TokenType.EOF) {                                           // Tracks where error occurs based on token type
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
+    report(token.line, where(token), message);
+  }
+
+  // Reports an error that was collected earlier, e.g. on another thread.
+  static void error(Scanner.ScanError error) {
+    report(error.line, error.where, error.message);
+  }
+
+  static String where(Token token) {
+    if(token.type == TokenType.EOF) return " at end";                           // Tracks where error occurs based on token type
+    return " at '" + token.lexeme + "'";
   }
 
   static void runtimeError(RuntimeError error) {
     System.err.println(
-      error.getMessage() + "\n[line " + error.token.line + "]");
+      error.getMessage() + "\n[line " + error.line + "]");
     hadRuntimeError = true;
   }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+package lox;
+
+import java.util.Arrays;
+
+// Growable array value. While it only holds numbers the elements live unboxed
+// in a double[]; the first non-number stored switches it over to an Object[]
+// for good.
+class LoxArray {
+  private static final int MIN_CAPACITY = 8;
+
+  private double[] numbers;                                                     // Storage while specialized, otherwise null
+  private Object[] values;                                                      // Storage once generalized, otherwise null
+  private int size = 0;
+  Interpreter owner = null;                                                     // See Interpreter.mayChange()
+
+  LoxArray() {
+    numbers = new double[MIN_CAPACITY];
+  }
+
+  LoxArray(int length) {
+    numbers = new double[Math.max(length, MIN_CAPACITY)];                       // Starts out as `length` zeros
+    size = length;
+  }
+
+  int size() {
+    return size;
+  }
+
+  // Approximate bytes held by the backing storage, for MemoryAccount.
+  long footprint() {
+    if(numbers != null) return footprint(true, numbers.length);
+    return footprint(false, values.length);
+  }
+
+  // What LoxArray(length) will hold, so the quota can be checked first.
+  static long footprint(int length) {
+    return footprint(true, Math.max(length, MIN_CAPACITY));
+  }
+
+  // What footprint() will be once `value` is stored and the array has
+  // `length` elements: one more than size() for add(), otherwise size().
+  long footprintWith(Object value, int length) {
+    int capacity = numbers != null ? numbers.length : values.length;
+    if(length > capacity) capacity *= 2;                                        // As add() grows it
+    return footprint(numbers != null && Numbers.isNumber(value), capacity);
+  }
+
+  // What copy() will hold.
+  long copyFootprint() {
+    return footprint(numbers != null, Math.max(size, MIN_CAPACITY));
+  }
+
+  private static long footprint(boolean specialized, int capacity) {
+    return 16 + (specialized ? 8L : 4L) * capacity;
+  }
+
+  // The strings held in the element at `index`, or in every element, as
+  // MemoryAccount counts them. Specialized arrays hold none.
+  long payload(int index) {
+    return values != null ? MemoryAccount.sizeOf(values[index]) : 0;
+  }
+
+  long payload() {
+    long bytes = 0;
+    for(int i = 0; values != null && i < size; i++) {
+      bytes += MemoryAccount.sizeOf(values[i]);
+    }
+    return bytes;
+  }
+
+  Object get(int index) {
+    if(numbers != null) return Numbers.valueOf(numbers[index]);
+    return values[index];
+  }
+
+  void set(int index, Object value) {
+    if(numbers != null) {
+      if(Numbers.isNumber(value)) {
+        numbers[index] = Numbers.toDouble(value);
+        return;
+      }
+      generalize();
+    }
+    values[index] = value;
+  }
+
+  void add(Object value) {
+    int capacity = numbers != null ? numbers.length : values.length;
+    if(size == capacity) grow(capacity * 2);
+    size++;
+    set(size - 1, value);
+  }
+
+  Object removeLast() {
+    Object value = get(size - 1);
+    size--;
+    if(values != null) values[size] = null;                                     // Don't keep the removed value alive
+    return value;
+  }
+
+  void fill(Object value) {
+    if(numbers != null && Numbers.isNumber(value)) {
+      Arrays.fill(numbers, 0, size, Numbers.toDouble(value));
+      return;
+    }
+    if(numbers != null) generalize();
+    Arrays.fill(values, 0, size, value);
+  }
+
+  LoxArray copy() {
+    LoxArray copy = new LoxArray();
+    copy.size = size;
+    if(numbers != null) {
+      copy.numbers = Arrays.copyOf(numbers, Math.max(size, MIN_CAPACITY));
+    } else {
+      copy.numbers = null;
+      copy.values = Arrays.copyOf(values, Math.max(size, MIN_CAPACITY));
+    }
+    return copy;
+  }
+
+  // Sorts in place. Only arrays of all numbers or all strings can be sorted;
+  // returns false (leaving the array untouched) for anything else.
+  boolean sort() {
+    if(numbers != null) {
+      Arrays.sort(numbers, 0, size);
+      return true;
+    }
+
+    boolean allNumbers = true;
+    boolean allStrings = true;
+    for(int i = 0; i < size; i++) {
+      allNumbers &= Numbers.isNumber(values[i]);
+      allStrings &= values[i] instanceof String;
+    }
+
+    if(allNumbers) {
+      Arrays.sort(values, 0, size,
+        (a, b) -> Double.compare(Numbers.toDouble(a), Numbers.toDouble(b)));
+      return true;
+    }
+    if(allStrings) {
+      Arrays.sort(values, 0, size);
+      return true;
+    }
+    return false;
+  }
+
+  private void grow(int capacity) {
+    if(numbers != null) {
+      numbers = Arrays.copyOf(numbers, capacity);
+    } else {
+      values = Arrays.copyOf(values, capacity);
+    }
+  }
+
+  private void generalize() {
+    values = new Object[numbers.length];
+    for(int i = 0; i < size; i++) {
+      values[i] = Numbers.valueOf(numbers[i]);
+    }
+    numbers = null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for(int i = 0; i < size; i++) {
+      if(i > 0) builder.append(", ");
+      builder.append(Interpreter.stringify(get(i)));
+    }
+    return builder.append("]").toString();
+  }
+}
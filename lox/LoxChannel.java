@@ -0,0 +1,79 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+
+// Bounded FIFO channel between tasks (see TaskNatives). send() blocks while
+// the channel is full and receive() while it is empty. A select() waiting on
+// several channels at once registers a semaphore with each of them, which
+// every send releases, and then polls them all again.
+class LoxChannel {
+  private static final Object EMPTY = new Object();                             // What poll() finds in an empty channel
+  private static final Object NIL = new Object();                               // ArrayDeque can't hold null
+
+  private final ArrayDeque<Object> buffer;
+  private final int capacity;
+  private final List<Semaphore> selectors = new CopyOnWriteArrayList<>();
+
+  LoxChannel(int capacity) {
+    this.buffer = new ArrayDeque<>(capacity);
+    this.capacity = capacity;
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  synchronized void send(Object value) throws InterruptedException {
+    while(buffer.size() == capacity) wait();
+    buffer.addLast(value == null ? NIL : value);
+    notifyAll();                                                                // Receivers, and senders waiting for room
+    for(Semaphore selector : selectors) selector.release();
+  }
+
+  synchronized Object receive() throws InterruptedException {
+    while(buffer.isEmpty()) wait();
+    return take();
+  }
+
+  private synchronized Object poll() {
+    if(buffer.isEmpty()) return EMPTY;
+    return take();
+  }
+
+  private Object take() {
+    Object value = buffer.removeFirst();
+    notifyAll();
+    return value == NIL ? null : value;
+  }
+
+  // Receives from the first of the channels, in list order, that has a value
+  // and returns its index, storing the value in received[0].
+  static int select(List<LoxChannel> channels, Object[] received)
+      throws InterruptedException {
+    Semaphore selector = new Semaphore(0);
+    for(LoxChannel channel : channels) channel.selectors.add(selector);         // Before polling, so no send can slip past
+    try {
+      for(;;) {
+        for(int i = 0; i < channels.size(); i++) {
+          Object value = channels.get(i).poll();
+          if(value != EMPTY) {
+            received[0] = value;
+            return i;
+          }
+        }
+        selector.acquire();
+        selector.drainPermits();                                                // One pass covers every send so far
+      }
+    } finally {
+      for(LoxChannel channel : channels) channel.selectors.remove(selector);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<channel " + capacity + ">";
+  }
+}
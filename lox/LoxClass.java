@@ -0,0 +1,60 @@
+package lox;
+
+import java.util.List;
+import java.util.Map;
+
+class LoxClass implements LoxCallable {
+  final String name;
+  final LoxClass superclass;
+  private final Map<String, LoxFunction> methods;
+  final Shape rootShape = new Shape(this);                                      // Shape of a new instance with no fields
+
+  LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    this.name = name;
+    this.superclass = superclass;
+    this.methods = methods;
+  }
+
+  // The methods declared in this class itself, for Isolate to copy.
+  Map<String, LoxFunction> methods() {
+    return methods;
+  }
+
+  LoxFunction findMethod(String name) {
+    if(methods.containsKey(name)) {
+      return methods.get(name);
+    }
+
+    if(superclass != null) {
+      return superclass.findMethod(name);
+    }
+
+    return null;
+  }
+
+  @Override
+  public int arity() {
+    LoxFunction initializer = findMethod("init");
+    if(initializer == null) return 0;
+    return initializer.arity();
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    LoxInstance instance = new LoxInstance(this);
+    instance.owner = interpreter.owner();
+    interpreter.memory.allocate(instance.footprint(), RuntimeError.NO_LINE);
+
+    LoxFunction initializer = findMethod("init");
+    if(initializer != null) {
+      initializer.bind(instance).call(interpreter, arguments);
+    }
+
+    return instance;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
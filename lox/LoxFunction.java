@@ -0,0 +1,98 @@
+package lox;
+
+import java.util.List;
+
+// A function or method value. Its closure holds only the variables the
+// Resolver found it captures, on top of the top-level environment it was
+// declared in.
+class LoxFunction implements LoxCallable {
+  private final Stmt.Function declaration;
+  private final Environment closure;
+  private final boolean isInitializer;
+  private final Memo memo;                                                      // Null unless the declaration is pure
+
+  LoxFunction(Stmt.Function declaration, Environment closure,
+      boolean isInitializer) {
+    this(declaration, closure, isInitializer, null);
+  }
+
+  LoxFunction(Stmt.Function declaration, Environment closure,
+      boolean isInitializer, Memo memo) {
+    this.declaration = declaration;
+    this.closure = closure;
+    this.isInitializer = isInitializer;
+    this.memo = memo;
+  }
+
+  private LoxFunction(LoxFunction function, Environment closure) {
+    this.declaration = function.declaration;
+    this.closure = closure;
+    this.isInitializer = function.isInitializer;
+    this.memo = null;
+  }
+
+  // The same function closing over a copy of its environment (see Isolate).
+  // Copies aren't memoized: a task's copies die with the task.
+  LoxFunction withClosure(Environment closure) {
+    return new LoxFunction(this, closure);
+  }
+
+  // The method with `this` bound to the instance it was accessed on.
+  LoxFunction bind(LoxInstance instance) {
+    Environment environment = new Environment(closure);
+    environment.define("this", instance);
+    return new LoxFunction(declaration, environment, isInitializer);
+  }
+
+  String name() {
+    return declaration.name;
+  }
+
+  Stmt.Function declaration() {
+    return declaration;
+  }
+
+  Environment closure() {
+    return closure;
+  }
+
+  boolean isInitializer() {
+    return isInitializer;
+  }
+
+  boolean isMemoized() {
+    return memo != null;
+  }
+
+  @Override
+  public int arity() {
+    return declaration.params.size();
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    if(memo != null) return memo.call(this, interpreter, arguments);
+    return invoke(interpreter, arguments);
+  }
+
+  // Runs the body, bypassing the memo table.
+  Object invoke(Interpreter interpreter, List<Object> arguments) {
+    Environment environment = new Environment(closure, interpreter.owner());
+    for(int i = 0; i < declaration.params.size(); i++) {
+      Object argument = arguments.get(i);
+      if(declaration.paramCells[i]) {                                           // An inner closure captures and assigns it
+        argument = new Environment.Cell(argument, interpreter.owner());
+      }
+      environment.define(declaration.params.get(i), argument);
+    }
+
+    Object value = interpreter.executeFunction(declaration.body, environment);
+    if(isInitializer) return closure.get("this", declaration.line);             // init() always gives back the instance
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "<fn " + declaration.name + ">";
+  }
+}
@@ -0,0 +1,48 @@
+package lox;
+
+import java.util.Arrays;
+
+// An object created by calling a class. Its fields live in `fields`, laid
+// out as described by `shape`; see Shape.
+class LoxInstance {
+  private static final int MIN_SLOTS = 4;
+
+  final LoxClass klass;
+  Shape shape;
+  Object[] fields;
+  Interpreter owner = null;                                                     // See Interpreter.mayChange()
+
+  LoxInstance(LoxClass klass) {
+    this.klass = klass;
+    this.shape = klass.rootShape;
+    this.fields = new Object[MIN_SLOTS];
+  }
+
+  // Approximate bytes held, for MemoryAccount.
+  long footprint() {
+    return footprint(fields.length);
+  }
+
+  // What footprint() will be once `slot` has been stored into.
+  long footprintAfterStore(int slot) {
+    return footprint(slot >= fields.length ? fields.length * 2 : fields.length);
+  }
+
+  private static long footprint(int slots) {
+    return 24 + 16 + 4L * slots;
+  }
+
+  // Stores into a slot, moving to `next` if that adds a field.
+  void store(Shape next, int slot, Object value) {
+    if(slot >= fields.length) {
+      fields = Arrays.copyOf(fields, fields.length * 2);
+    }
+    shape = next;
+    fields[slot] = value;
+  }
+
+  @Override
+  public String toString() {
+    return klass.name + " instance";
+  }
+}
@@ -0,0 +1,208 @@
+package lox;
+
+import java.util.function.BiConsumer;
+
+// Hash map value with open addressing and linear probing. Keys are compared
+// the way Interpreter.isEqual() compares values. Number keys are stored as the
+// raw bits of their double value, so 1 and 1.0 are the same key and looking
+// one up never calls equals(); string keys are compared by their cached hash
+// before equals().
+class LoxMap {
+  // Markers stored in the key column of the table.
+  private static final Object NUMBER_KEY = new Object();                        // Real key is in `bits`
+  private static final Object NIL_KEY = new Object();
+  private static final Object DELETED = new Object();                           // Tombstone, keeps probe chains intact
+
+  private static final int MIN_CAPACITY = 8;
+
+  // Keys and values are interleaved so a probe touches one cache line for
+  // both. `bits` holds the double bits of number keys and the hash of every
+  // other key, which is checked before calling equals().
+  private Object[] table;
+  private long[] bits;
+  private int size = 0;
+  private int used = 0;                                                         // Live entries plus tombstones
+  Interpreter owner = null;                                                     // See Interpreter.mayChange()
+
+  LoxMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  int size() {
+    return size;
+  }
+
+  // Approximate bytes held by the table, for MemoryAccount.
+  long footprint() {
+    return footprint(bits.length);
+  }
+
+  // What a new LoxMap holds, so the quota can be checked first.
+  static long emptyFootprint() {
+    return footprint(MIN_CAPACITY);
+  }
+
+  // What footprint() will be after put(), which may resize the table first.
+  long footprintAfterPut() {
+    int capacity = bits.length;
+    if((used + 1) * 4 > capacity * 3 && size * 2 >= capacity) capacity *= 2;
+    return footprint(capacity);
+  }
+
+  private static long footprint(int capacity) {
+    return 32 + 16L * capacity;                                                 // Two table slots and one bits slot per entry
+  }
+
+  boolean has(Object key) {
+    return find(key) >= 0;
+  }
+
+  // Returns nil for missing keys.
+  Object get(Object key) {
+    int slot = find(key);
+    return slot >= 0 ? table[slot * 2 + 1] : null;
+  }
+
+  void put(Object key, Object value) {
+    if((used + 1) * 4 > bits.length * 3) {                                      // Keep the load factor under 3/4
+      resize(size * 2 >= bits.length ? bits.length * 2 : bits.length);
+    }
+
+    Object stored = storedKey(key);
+    long keyBits = keyBits(key);
+    int mask = bits.length - 1;
+    int tombstone = -1;
+
+    for(int slot = hash(keyBits) & mask; ; slot = (slot + 1) & mask) {
+      Object k = table[slot * 2];
+      if(k == null) {
+        if(tombstone >= 0) {
+          slot = tombstone;                                                     // Reuse the first tombstone on the chain
+        } else {
+          used++;
+        }
+        table[slot * 2] = stored;
+        table[slot * 2 + 1] = value;
+        bits[slot] = keyBits;
+        size++;
+        return;
+      }
+      if(k == DELETED) {
+        if(tombstone < 0) tombstone = slot;
+      } else if(matches(slot, k, stored, keyBits)) {
+        table[slot * 2 + 1] = value;
+        return;
+      }
+    }
+  }
+
+  // Returns the removed value, or nil if the key wasn't there.
+  Object remove(Object key) {
+    int slot = find(key);
+    if(slot < 0) return null;
+
+    Object value = table[slot * 2 + 1];
+    table[slot * 2] = DELETED;
+    table[slot * 2 + 1] = null;                                                 // Don't keep the value alive
+    size--;
+    return value;
+  }
+
+  // Calls `action` with every key and value, in table order.
+  void forEach(BiConsumer<Object, Object> action) {
+    for(int slot = 0; slot < bits.length; slot++) {
+      Object key = table[slot * 2];
+      if(key == null || key == DELETED) continue;
+      action.accept(keyAt(slot), table[slot * 2 + 1]);
+    }
+  }
+
+  private Object keyAt(int slot) {
+    Object key = table[slot * 2];
+    if(key == NUMBER_KEY) return Numbers.valueOf(Double.longBitsToDouble(bits[slot]));
+    if(key == NIL_KEY) return null;
+    return key;
+  }
+
+  private int find(Object key) {
+    Object stored = storedKey(key);
+    long keyBits = keyBits(key);
+    int mask = bits.length - 1;
+
+    for(int slot = hash(keyBits) & mask; ; slot = (slot + 1) & mask) {
+      Object k = table[slot * 2];
+      if(k == null) return -1;
+      if(k != DELETED && matches(slot, k, stored, keyBits)) return slot;
+    }
+  }
+
+  // Checks the key column first: the same String, nil, or object is found
+  // without touching `bits` at all, so a hit usually costs one cache miss.
+  private boolean matches(int slot, Object k, Object stored, long keyBits) {
+    if(k == stored) return stored != NUMBER_KEY || bits[slot] == keyBits;
+    if(k == NUMBER_KEY || stored == NUMBER_KEY) return false;
+    return bits[slot] == keyBits && stored.equals(k);
+  }
+
+  private static Object storedKey(Object key) {
+    if(key instanceof Long || key instanceof Double) return NUMBER_KEY;
+    if(key == null) return NIL_KEY;
+    return key;
+  }
+
+  private static long keyBits(Object key) {
+    if(key instanceof Long) return Double.doubleToLongBits((double)(long)key);
+    if(key instanceof Double) {
+      return Double.doubleToLongBits((double)key);                              // Canonicalizes NaN, keeps 0 and -0 apart
+    }
+    if(key == null) return 0;
+    return key.hashCode();                                                      // Cached for strings
+  }
+
+  private static int hash(long keyBits) {
+    // Linear probing needs well spread hashes: String.hashCode() puts similar
+    // strings next to each other and doubles keep their entropy in the top
+    // bits, so run everything through the murmur3 finalizer.
+    int h = (int)(keyBits ^ (keyBits >>> 32));
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+
+  private void allocate(int capacity) {
+    table = new Object[capacity * 2];
+    bits = new long[capacity];
+  }
+
+  private void resize(int capacity) {
+    Object[] oldTable = table;
+    long[] oldBits = bits;
+    allocate(capacity);
+    used = size;
+
+    int mask = capacity - 1;
+    for(int i = 0; i < oldBits.length; i++) {
+      Object k = oldTable[i * 2];
+      if(k == null || k == DELETED) continue;                                   // Drops tombstones too
+
+      int slot = hash(oldBits[i]) & mask;
+      while(table[slot * 2] != null) slot = (slot + 1) & mask;
+      table[slot * 2] = k;
+      table[slot * 2 + 1] = oldTable[i * 2 + 1];
+      bits[slot] = oldBits[i];
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    forEach((key, value) -> {
+      if(builder.length() > 1) builder.append(", ");
+      builder.append(Interpreter.stringify(key)).append(": ")
+        .append(Interpreter.stringify(value));
+    });
+    return builder.append("}").toString();
+  }
+}
@@ -0,0 +1,164 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A file opened for reading from Lox. Large files are memory-mapped a region
+// at a time; smaller ones are read through a FileChannel into one reusable
+// buffer. Either way only the bytes of the line (or chunk) being returned are
+// copied out, so reading a multi-GB file never holds more than a region of it.
+class LoxReader {
+  private static final long MAP_THRESHOLD = 1 << 20;                            // Files at least this big are mapped
+  private static final long REGION = 1 << 30;                                   // A MappedByteBuffer can't exceed 2GB
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String name;
+  private final FileChannel channel;
+  private final long size;
+  private final boolean mapped;
+  private ByteBuffer buffer;
+  private long mappedTo = 0;                                                    // File offset just past the current region
+
+  // Bytes read from the file but not handed out yet: a line that runs across
+  // the end of the buffer, or the partial character at the end of a chunk.
+  private byte[] pending = new byte[256];
+  private int pendingLength = 0;
+  private boolean atEnd = false;
+  private boolean closed = false;
+
+  LoxReader(Path path) throws IOException {
+    name = path.toString();
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    size = channel.size();
+    mapped = size >= MAP_THRESHOLD;
+    buffer = mapped ? ByteBuffer.allocate(0)
+                    : ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+  }
+
+  // Returns the next line without its terminator ("\n" or "\r\n"), or null at
+  // the end of the file.
+  String readLine() throws IOException {
+    while(true) {
+      int start = buffer.position();
+      int limit = buffer.limit();
+      for(int i = start; i < limit; i++) {
+        if(buffer.get(i) != '\n') continue;
+
+        buffer.position(i + 1);
+        if(pendingLength == 0 && buffer.hasArray()) {                           // Whole line is in the buffer, decode in place
+          int end = i > start && buffer.get(i - 1) == '\r' ? i - 1 : i;
+          return new String(buffer.array(), buffer.arrayOffset() + start,
+            end - start, StandardCharsets.UTF_8);
+        }
+        appendPending(start, i);
+        return takeLine();
+      }
+
+      appendPending(start, limit);
+      buffer.position(limit);
+      if(!fill()) {
+        if(pendingLength == 0) return null;
+        return takeLine();                                                      // Last line has no terminator
+      }
+    }
+  }
+
+  // Returns the next `length` bytes or so as a string, or null at the end of
+  // the file. A chunk never ends in the middle of a UTF-8 sequence; the bytes
+  // of a split character are held back for the next call.
+  String readChunk(int length) throws IOException {
+    while(pendingLength < length) {
+      if(!buffer.hasRemaining() && !fill()) break;
+      int take = Math.min(buffer.remaining(), length - pendingLength);
+      int start = buffer.position();
+      appendPending(start, start + take);
+      buffer.position(start + take);
+    }
+    if(pendingLength == 0) return null;
+
+    int end = pendingLength;
+    if(!atEnd) {                                                                // More bytes may follow, so don't split a character
+      end = characterBoundary(pending, pendingLength);
+      if(end == 0) end = pendingLength;                                         // Not valid UTF-8 anyway; let the decoder replace it
+    }
+    String chunk = new String(pending, 0, end, StandardCharsets.UTF_8);
+    pendingLength -= end;
+    System.arraycopy(pending, end, pending, 0, pendingLength);
+    return chunk;
+  }
+
+  void close() throws IOException {
+    if(closed) return;
+    closed = true;
+    buffer = ByteBuffer.allocate(0);                                            // Drop the mapping so it can be unmapped
+    channel.close();
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  private boolean fill() throws IOException {
+    if(closed || atEnd) return false;
+    if(mapped) {
+      if(mappedTo >= size) {
+        atEnd = true;
+        return false;
+      }
+      long length = Math.min(REGION, size - mappedTo);
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, mappedTo, length);
+      mappedTo += length;
+      return true;
+    }
+
+    buffer.clear();
+    int read = channel.read(buffer);
+    buffer.flip();
+    if(read <= 0) atEnd = true;
+    return read > 0;
+  }
+
+  private void appendPending(int from, int to) {
+    int length = to - from;
+    if(pendingLength + length > pending.length) {
+      pending = Arrays.copyOf(pending,
+        Math.max(pending.length * 2, pendingLength + length));
+    }
+    buffer.get(from, pending, pendingLength, length);
+    pendingLength += length;
+  }
+
+  private String takeLine() {
+    int end = pendingLength;
+    if(end > 0 && pending[end - 1] == '\r') end--;
+    String line = new String(pending, 0, end, StandardCharsets.UTF_8);
+    pendingLength = 0;
+    return line;
+  }
+
+  // Length of the longest prefix of bytes[0, length) that doesn't end inside
+  // a multi-byte UTF-8 sequence.
+  private static int characterBoundary(byte[] bytes, int length) {
+    int i = length - 1;
+    int back = 0;
+    while(i >= 0 && back < 3 && (bytes[i] & 0xC0) == 0x80) {                    // Skip continuation bytes
+      i--;
+      back++;
+    }
+    if(i < 0) return 0;
+
+    int lead = bytes[i] & 0xFF;
+    int needed = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+    return length - i >= needed ? length : i;
+  }
+
+  @Override
+  public String toString() {
+    return "<file " + name + ">";
+  }
+}
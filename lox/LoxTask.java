@@ -0,0 +1,34 @@
+package lox;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+// Handle for a task started with spawn(), for join() to wait on.
+class LoxTask {
+  private final CountDownLatch done = new CountDownLatch(1);
+  private volatile Object result = null;
+  private volatile boolean failed = true;                                       // Until the callable has returned
+
+  // Runs on the task's own thread, with the task's own interpreter.
+  void run(Interpreter interpreter, LoxFunction function, Object argument) {
+    try {
+      result = interpreter.runTask(function, Collections.singletonList(argument));
+      failed = false;
+    } catch(RuntimeError error) {
+      // Already reported by runTask()
+    } finally {
+      done.countDown();
+    }
+  }
+
+  Object join() throws InterruptedException {
+    done.await();
+    if(failed) throw new RuntimeError("Joined a task that failed.");
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "<task>";
+  }
+}
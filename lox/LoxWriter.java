@@ -0,0 +1,63 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A file opened for writing from Lox. Strings are encoded straight into one
+// reusable buffer that goes to the FileChannel whenever it fills up.
+class LoxWriter {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String name;
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+    .onMalformedInput(CodingErrorAction.REPLACE);                               // Same as String.getBytes() for a lone surrogate
+  private boolean closed = false;
+
+  LoxWriter(Path path) throws IOException {
+    name = path.toString();
+    channel = FileChannel.open(path, StandardOpenOption.WRITE,
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  void write(String text) throws IOException {
+    CharBuffer chars = CharBuffer.wrap(text);
+    encoder.reset();
+    while(encoder.encode(chars, buffer, true).isOverflow()) {
+      flush();                                                                  // Buffer is full; the rest goes in the next round
+    }
+  }
+
+  void flush() throws IOException {
+    buffer.flip();
+    while(buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+
+  void close() throws IOException {
+    if(closed) return;
+    closed = true;
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public String toString() {
+    return "<file " + name + ">";
+  }
+}
@@ -0,0 +1,84 @@
+package lox;
+
+import java.util.List;
+
+// Native functions for working with LoxMap values.
+class MapNatives {
+  private MapNatives() {}
+
+  static void define(Environment globals) {
+    new NativeFunction("map", 0) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        ArrayNatives.charge(interpreter, LoxMap.emptyFootprint());
+        LoxMap map = new LoxMap();
+        map.owner = interpreter.owner();
+        return map;
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("get", 2) {                                              // Missing keys give nil
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return checkMap(arguments.get(0)).get(arguments.get(1));
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("put", 3) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxMap map = checkWritable(interpreter, arguments.get(0));
+        Object key = arguments.get(1);
+        Object value = arguments.get(2);
+        long replaced = map.has(key) ? MemoryAccount.sizeOf(map.get(key))
+                                     : -MemoryAccount.sizeOf(key);              // A new key is stored too
+        ArrayNatives.charge(interpreter, map.footprintAfterPut() -
+          map.footprint() + MemoryAccount.sizeOf(value) - replaced);
+        map.put(key, value);
+        return null;
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("remove", 2) {                                           // Returns the removed value, or nil
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxMap map = checkWritable(interpreter, arguments.get(0));
+        Object key = arguments.get(1);
+        if(!map.has(key)) return null;
+        Object value = map.remove(key);
+        interpreter.memory.release(MemoryAccount.sizeOf(key) +
+          MemoryAccount.sizeOf(value));
+        return value;
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("has", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return checkMap(arguments.get(0)).has(arguments.get(1));
+      }
+    }.pure().defineIn(globals);
+
+    new NativeFunction("size", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return (long)checkMap(arguments.get(0)).size();
+      }
+    }.pure().defineIn(globals);
+  }
+
+  private static LoxMap checkMap(Object value) {
+    if(value instanceof LoxMap) return (LoxMap)value;
+    throw new RuntimeError("Argument must be a map.");
+  }
+
+  // Like checkMap(), for natives that change the map.
+  private static LoxMap checkWritable(Interpreter interpreter, Object value) {
+    LoxMap map = checkMap(value);
+    if(!interpreter.mayChange(map.owner)) {
+      throw new RuntimeError(
+        "Can't change a map a parallel callable didn't create.");
+    }
+    return map;
+  }
+}
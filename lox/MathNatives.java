@@ -0,0 +1,56 @@
+package lox;
+
+// Numeric natives, bound by NativeRegistry.
+//
+//   sqrt(x), pow(x, y), floor(x), ceil(x), abs(x), min(x, y), max(x, y)
+//   clock()   -> seconds since the epoch, as a fraction
+//
+// floor() and ceil() return integers when the result is one Lox can hold
+// exactly (see Numbers).
+class MathNatives {
+  private MathNatives() {}
+
+  static void define(Environment globals) {
+    NativeRegistry.define(globals, MathNatives.class);
+  }
+
+  @Native(pure = true)
+  static double sqrt(double x) {
+    return Math.sqrt(x);
+  }
+
+  @Native(pure = true)
+  static double pow(double x, double y) {
+    return Math.pow(x, y);
+  }
+
+  @Native(pure = true)
+  static double floor(double x) {
+    return Math.floor(x);
+  }
+
+  @Native(pure = true)
+  static double ceil(double x) {
+    return Math.ceil(x);
+  }
+
+  @Native(pure = true)
+  static double abs(double x) {
+    return Math.abs(x);
+  }
+
+  @Native(pure = true)
+  static double min(double x, double y) {
+    return Math.min(x, y);
+  }
+
+  @Native(pure = true)
+  static double max(double x, double y) {
+    return Math.max(x, y);
+  }
+
+  @Native
+  static double clock() {
+    return System.currentTimeMillis() / 1000.0;
+  }
+}
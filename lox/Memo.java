@@ -0,0 +1,200 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Memo table of a pure top-level function declaration: results by argument,
+// evicting the least recently used entry once it holds `capacity` of them.
+// Every function value made from the declaration shares the table, so
+// declaring it again (once per record in record mode, say) doesn't add one.
+// The table belongs to the interpreter's Tables, which the functions of its
+// parallel workers share and each task gets its own of.
+//
+// The Resolver proves a body pure up to the globals it reads (no print, no
+// import, no global writes; see Stmt.Function.impurity). Whether those
+// globals are pure too is only known at run time, so before using its table
+// a function checks that each of them holds a number, string, boolean, nil,
+// pure native or pure function, all the way down. Rebinding a global that
+// some table depends on bumps the epoch, which makes every table check again
+// and drop what it has; so does a call through a function value closing
+// over a different top-level scope from the last one.
+//
+// Only calls whose arguments are all numbers, strings, booleans or nil are
+// looked up, and only results of those kinds are stored: anything else could
+// be mutated by the caller. Everything else a pure call can reach was
+// allocated during the call, so it makes no difference whether it runs.
+//
+// Pure functions are memoized automatically, but a table that isn't earning
+// its keep (fewer than one hit in GIVE_UP_RATIO lookups after `capacity`
+// lookups) is dropped and the function goes back to plain calls. Naming a
+// function memo_something opts it in for good: it never gives up, and the
+// Resolver warns about one that isn't pure.
+class Memo {
+  static final String OPT_IN_PREFIX = "memo_";
+  private static final int GIVE_UP_RATIO = 8;
+  private static final Object NIL = new Object();                               // Stands in for a nil result in the table
+
+  // The memo tables of one interpreter, and what decides when they are
+  // stale. The globals environment holds it too, to report rebinding.
+  static final class Tables {
+    private volatile int capacity = 1024;                                       // Entries per table, set by --memo-size (0 turns it off)
+    private final AtomicLong epoch = new AtomicLong();
+    private final Set<String> watched = ConcurrentHashMap.newKeySet();         // Globals that some table depends on
+    private final Map<Stmt.Function, Memo> tables = new LinkedHashMap<>();     // In the order they were made, for report()
+
+    void setCapacity(int capacity) {
+      this.capacity = capacity;
+    }
+
+    // Fresh tables for a task, with the same capacity.
+    Tables copy() {
+      Tables copy = new Tables();
+      copy.capacity = capacity;
+      return copy;
+    }
+
+    // The table for a function being declared, or null if it can't have one.
+    synchronized Memo forDeclaration(Stmt.Function declaration) {
+      if(declaration.impurity != null || capacity <= 0) return null;
+      Memo memo = tables.get(declaration);
+      if(memo == null) {
+        watched.addAll(declaration.globals);
+        memo = new Memo(this, declaration);
+        tables.put(declaration, memo);
+      }
+      return memo;
+    }
+
+    // Called by Environment whenever a top-level binding changes.
+    void rebound(String name) {
+      if(!watched.isEmpty() && watched.contains(name)) epoch.incrementAndGet();
+    }
+
+    // One line per table, for --memo-stats.
+    synchronized List<String> report() {
+      List<String> lines = new ArrayList<>();
+      for(Memo memo : tables.values()) {
+        synchronized(memo) {
+          lines.add(memo.declaration.name + ": " + memo.hits + " hits, " +
+            memo.misses + " misses, " + memo.entries.size() + " entries" +
+            (memo.gaveUp ? " (gave up)" : ""));
+        }
+      }
+      return lines;
+    }
+  }
+
+  private final Tables owner;
+  private final Stmt.Function declaration;
+  private final boolean optedIn;
+  private final int capacity;
+  private final Map<Object, Object> entries;
+  private long checked = -1;                                                    // Epoch the globals were last checked in
+  private Environment checkedIn = null;                                         // And the closure they were looked up in
+  private boolean usable = false;                                               // Whether they were all pure then
+  private boolean gaveUp = false;
+  private long hits = 0;
+  private long misses = 0;
+
+  private Memo(Tables owner, Stmt.Function declaration) {
+    this.owner = owner;
+    this.declaration = declaration;
+    this.optedIn = declaration.name.startsWith(OPT_IN_PREFIX);
+    this.capacity = owner.capacity;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {                       // Access order, so the eldest is least recently used
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  Object call(LoxFunction function, Interpreter interpreter,
+              List<Object> arguments) {
+    Object key = key(arguments);
+    if(key == null) return function.invoke(interpreter, arguments);
+
+    synchronized(this) {                                                        // Shared by parallel workers
+      if(!ready(function)) return function.invoke(interpreter, arguments);
+      Object value = entries.get(key);
+      if(value != null) {
+        hits++;
+        return value == NIL ? null : value;
+      }
+      misses++;
+      if(!optedIn && hits + misses >= capacity &&
+          hits * GIVE_UP_RATIO < hits + misses) {
+        gaveUp = true;
+        entries.clear();
+      }
+    }
+
+    Object result = function.invoke(interpreter, arguments);                    // Not holding the lock, calls may recurse
+    if(isValue(result)) {
+      synchronized(this) {
+        if(!gaveUp && checkedIn == function.closure()) {
+          entries.put(key, result == null ? NIL : result);
+        }
+      }
+    }
+    return result;
+  }
+
+  // Runs under the lock.
+  private boolean ready(LoxFunction function) {
+    if(gaveUp) return false;
+    long current = owner.epoch.get();
+    if(checked != current || checkedIn != function.closure()) {
+      entries.clear();
+      usable = isPure(function, new HashSet<>());
+      checked = current;
+      checkedIn = function.closure();
+    }
+    return usable;
+  }
+
+  private static Object key(List<Object> arguments) {
+    for(Object argument : arguments) {
+      if(!isValue(argument)) return null;
+    }
+    if(arguments.size() == 1) {
+      Object argument = arguments.get(0);
+      return argument == null ? NIL : argument;
+    }
+    return new ArrayList<>(arguments);                                          // Long 1 and Double 1.0 stay different keys
+  }
+
+  private static boolean isValue(Object value) {
+    return value == null || value instanceof Long || value instanceof Double ||
+      value instanceof String || value instanceof Boolean;
+  }
+
+  private static boolean isPure(Object value, Set<LoxFunction> visiting) {
+    if(isValue(value)) return true;
+    if(value instanceof NativeFunction) return ((NativeFunction)value).isPure();
+    if(!(value instanceof LoxFunction)) return false;
+
+    LoxFunction function = (LoxFunction)value;
+    if(!visiting.add(function)) return true;                                    // Already being checked further up (recursion)
+    Stmt.Function declaration = function.declaration();
+    if(declaration.impurity != null || !declaration.captures.isEmpty()) {
+      return false;
+    }
+    for(String name : declaration.globals) {
+      Object global;
+      try {
+        global = function.closure().get(name, declaration.line);
+      } catch(RuntimeError error) {
+        return false;                                                           // Not defined (yet), so calling it would fail
+      }
+      if(!isPure(global, visiting)) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,94 @@
+package lox;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Rough running total of the memory a script is holding on to, kept per
+// program so one runaway script fails with a RuntimeError instead of
+// exhausting the heap shared with everything else in the process.
+//
+// What's counted: block environments and their bindings while the block is
+// running, strings while a variable, an element, a map entry or a field holds
+// them, and the backing storage of arrays, maps and instances (for the rest
+// of the run, since we can't see when they become garbage). Sizes are
+// estimates for a 64-bit JVM with compressed oops.
+//
+// One account covers the whole program: parallel workers and spawned tasks
+// charge the account of the interpreter that started them, so the totals
+// are kept with atomics.
+class MemoryAccount {
+  static final long ENVIRONMENT_BYTES = 160;                                    // Environment plus an empty HashMap
+  static final long BINDING_BYTES = 40;                                         // One HashMap entry
+
+  private volatile long quota = Long.MAX_VALUE;
+  private final AtomicLong used = new AtomicLong();
+  private final AtomicLong maxCharged = new AtomicLong();
+
+  void setQuota(long quota) {
+    this.quota = quota;
+  }
+
+  long quota() {
+    return quota;
+  }
+
+  long used() {
+    return used.get();
+  }
+
+  // The most used() has been. That isn't the most the script held at once:
+  // arrays, maps, instances and closures are never released, so it counts
+  // everything they ever allocated, plus the most that environments and
+  // strings held at one time.
+  long maxCharged() {
+    return maxCharged.get();
+  }
+
+  // Charges without checking the quota, for a value check() has just let
+  // through.
+  void allocate(long bytes) {
+    long now = used.addAndGet(bytes);
+    if(now > maxCharged.get()) maxCharged.accumulateAndGet(now, Math::max);
+  }
+
+  void allocate(long bytes, int line) {
+    long now = used.addAndGet(bytes);
+    if(now > quota) {
+      used.addAndGet(-bytes);                                                   // Charged only if it fits, as check() decides
+      throw exceeded(line);
+    }
+    if(now > maxCharged.get()) maxCharged.accumulateAndGet(now, Math::max);
+  }
+
+  // Fails if `bytes` more would go over the quota, without charging them.
+  void check(long bytes, int line) {
+    if(used.get() + bytes > quota) throw exceeded(line);
+  }
+
+  void release(long bytes) {
+    used.addAndGet(-bytes);
+  }
+
+  private RuntimeError exceeded(int line) {
+    return new RuntimeError(line, "Memory quota of " + quota + " bytes exceeded.");
+  }
+
+  static long sizeOf(Object value) {
+    if(value instanceof Environment.Cell) value = ((Environment.Cell)value).value;
+    if(value instanceof String) return stringBytes(((String)value).length());
+    return 0;                                                                   // Collections are charged as they grow
+  }
+
+  static long stringBytes(long length) {
+    return 40 + 2 * length;                                                     // String, array header, UTF-16 worst case
+  }
+
+  // Everything charged for a block environment that is going away.
+  static long sizeOf(Environment environment) {
+    long bytes = ENVIRONMENT_BYTES;
+    for(Map.Entry<String, Object> binding : environment.bindings().entrySet()) {
+      bytes += BINDING_BYTES + sizeOf(binding.getValue());
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,128 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Scans and parses modules for `import` statements. Each file is compiled once
+// per process and cached by path and modification time, so every interpreter
+// (and every file importing the same library) shares one AST. As soon as a
+// module is parsed, the modules it imports are compiled in the background so
+// that independent imports are parsed in parallel.
+//
+// Compiling never reports anything itself, since it may happen on a pool
+// thread for a module that is never run. Scan and syntax errors are kept on
+// the Module and reported by the interpreter that imports it.
+class ModuleLoader {
+  static class Module {
+    final Path path;
+    final long modified;
+    final List<Stmt> statements;
+    final List<Scanner.ScanError> errors;                                       // If any, the module must not be run
+
+    Module(Path path, long modified, List<Stmt> statements,
+        List<Scanner.ScanError> errors) {
+      this.path = path;
+      this.modified = modified;
+      this.statements = statements;
+      this.errors = errors;
+    }
+
+    boolean hadError() {
+      return !errors.isEmpty();
+    }
+  }
+
+  private static final Map<Path, CompletableFuture<Module>> cache =
+    new ConcurrentHashMap<>();
+
+  private ModuleLoader() {}
+
+  // Returns the compiled module, waiting for a background compile if one is
+  // already running. Throws IOException if the file can't be read.
+  static Module load(Path path) throws IOException {
+    path = path.toAbsolutePath().normalize();
+    long modified = Files.getLastModifiedTime(path).toMillis();
+
+    CompletableFuture<Module> future = cache.get(path);
+    if(future != null && future.isDone() && !future.isCompletedExceptionally()
+        && future.join().modified != modified) {
+      cache.remove(path, future);                                               // File changed on disk since we compiled it
+      future = null;
+    }
+    if(future == null) future = compileAsync(path);
+
+    try {
+      return future.join();
+    } catch(CompletionException error) {
+      if(error.getCause() instanceof IOException) {
+        throw (IOException)error.getCause();
+      }
+      throw error;
+    }
+  }
+
+  // Starts compiling every module imported at the top level of `statements`,
+  // resolving paths relative to `dir`. Doesn't wait for any of them.
+  static void prefetch(Path dir, List<Stmt> statements) {
+    for(Stmt statement : statements) {
+      if(statement instanceof Stmt.Import) {
+        Path path = resolve(dir, (Stmt.Import)statement);
+        if(!cache.containsKey(path)) compileAsync(path);
+      }
+    }
+  }
+
+  static Path resolve(Path dir, Stmt.Import stmt) {
+    return dir.resolve(stmt.path).toAbsolutePath().normalize();
+  }
+
+  private static CompletableFuture<Module> compileAsync(Path path) {
+    CompletableFuture<Module> future = new CompletableFuture<>();
+    CompletableFuture<Module> running = cache.putIfAbsent(path, future);
+    if(running != null) return running;                                         // Someone else got here first
+
+    CompletableFuture.runAsync(() -> {
+      try {
+        Module module = compile(path);
+        future.complete(module);
+        prefetch(path.getParent(), module.statements);
+      } catch(IOException | RuntimeException error) {
+        cache.remove(path, future);                                             // Don't cache failures, the file may show up later
+        future.completeExceptionally(error);
+      }
+    });
+    return future;
+  }
+
+  private static Module compile(Path path) throws IOException {
+    long modified = Files.getLastModifiedTime(path).toMillis();
+    byte[] bytes = Files.readAllBytes(path);
+
+    List<Scanner.ScanError> errors = new ArrayList<>();
+    List<Token> tokens;
+    if(Charset.defaultCharset().equals(StandardCharsets.UTF_8)) {
+      tokens = new ByteScanner(bytes).scanTokens(errors);                       // No need to decode the file first
+    } else {
+      tokens = new Scanner(new String(bytes, Charset.defaultCharset()))
+        .scanTokens(errors);
+    }
+
+    Parser parser = new Parser(tokens, errors);                                 // Adds its errors after the scanner's
+    List<Stmt> statements = parser.parse();
+    if(errors.isEmpty()) {
+      statements = new Fusion().fuse(statements);
+      new Resolver().resolve(statements);
+      new TypeInference().analyze(statements);
+    }
+    return new Module(path, modified, statements, errors);
+  }
+}
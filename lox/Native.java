@@ -0,0 +1,14 @@
+package lox;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a static method for NativeRegistry to bind as a Lox global.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Native {
+  String name() default "";                                                     // Defaults to the method's name
+  boolean pure() default false;                                                 // See NativeFunction.pure()
+}
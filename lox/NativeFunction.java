@@ -0,0 +1,47 @@
+package lox;
+
+import java.util.List;
+
+// Base class for functions implemented in Java and bound as Lox globals.
+abstract class NativeFunction implements LoxCallable {
+  private final String name;
+  private final int arity;
+  private boolean pure = false;
+
+  NativeFunction(String name, int arity) {
+    this.name = name;
+    this.arity = arity;
+  }
+
+  String name() {
+    return name;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public abstract Object call(Interpreter interpreter, List<Object> arguments);
+
+  // Marks a native that only reads and changes its arguments and what it
+  // allocates, so pure functions may call it (see Memo).
+  NativeFunction pure() {
+    pure = true;
+    return this;
+  }
+
+  boolean isPure() {
+    return pure;
+  }
+
+  void defineIn(Environment environment) {
+    environment.define(name, this);
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn " + name + ">";
+  }
+}
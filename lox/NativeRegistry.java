@@ -0,0 +1,258 @@
+package lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+// Binds the @Native static methods of a class as Lox globals, so a native
+// can be written as a plain Java method:
+//
+//   @Native(pure = true)
+//   static double hypot(double x, double y) { ... }
+//
+// The arity is the number of parameters, not counting a leading Interpreter
+// parameter, which receives the calling interpreter. Parameters can be
+// double, long, int, boolean, String, Object (any Lox value) or a runtime
+// class such as LoxArray; the result can be any of those or void (nil).
+//
+// Reflection is only used here, at binding time. Each method becomes one
+// MethodHandle of type (Interpreter, List)Object that picks its arguments
+// out of the list, checks and unboxes them, calls the method and boxes the
+// result. The JIT only inlines through a handle it can see is constant, so
+// each native gets its own hidden copy of BoundNative holding its handle in a
+// static final field; a call then compiles much like a hand-written native.
+class NativeRegistry {
+  private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+  private static final MethodType CALL_TYPE =
+    MethodType.methodType(Object.class, Interpreter.class, List.class);
+  private static byte[] template = null;                                        // BoundNative's class file
+
+  private NativeRegistry() {}
+
+  static void define(Environment globals, Class<?> natives) {
+    for(Method method : natives.getDeclaredMethods()) {
+      if(!method.isAnnotationPresent(Native.class)) continue;
+      if(!Modifier.isStatic(method.getModifiers())) {
+        throw new IllegalArgumentException(method + " must be static.");
+      }
+      bind(method).defineIn(globals);
+    }
+  }
+
+  static NativeFunction bind(Method method) {
+    Native annotation = method.getAnnotation(Native.class);
+    String name = annotation.name().isEmpty() ?
+      method.getName() : annotation.name();
+
+    Class<?>[] parameters = method.getParameterTypes();
+    int first = parameters.length > 0 &&
+      parameters[0] == Interpreter.class ? 1 : 0;
+    int arity = parameters.length - first;
+
+    MethodHandle handle;
+    try {
+      handle = lookup.unreflect(method);
+    } catch(IllegalAccessException error) {
+      throw new IllegalArgumentException(method + " isn't accessible.", error);
+    }
+    handle = boxResult(handle, method.getReturnType());
+
+    MethodHandle[] unpack = new MethodHandle[arity];                            // (List)T for each argument
+    for(int i = 0; i < arity; i++) {
+      unpack[i] = argument(parameters[first + i], i);
+    }
+    handle = MethodHandles.filterArguments(handle, first, unpack);
+
+    int[] reorder = new int[parameters.length];                                 // Every List parameter is the same list
+    for(int i = 0; i < parameters.length; i++) {
+      reorder[i] = i < first ? 0 : 1;
+    }
+    handle = MethodHandles.permuteArguments(handle, CALL_TYPE, reorder);
+
+    NativeFunction function = instantiate(handle, name, arity);
+    return annotation.pure() ? function.pure() : function;
+  }
+
+  // Defines a new hidden class from BoundNative's class file with `handle`
+  // as its class data, and makes the one instance of it.
+  private static NativeFunction instantiate(MethodHandle handle, String name,
+                                            int arity) {
+    try {
+      Class<?> bound = lookup.defineHiddenClassWithClassData(
+        template(), handle, true).lookupClass();
+      return (NativeFunction)bound
+        .getDeclaredConstructor(String.class, int.class)
+        .newInstance(name, arity);
+    } catch(ReflectiveOperationException | IOException error) {
+      throw new IllegalStateException("Can't bind " + name + ".", error);
+    }
+  }
+
+  private static synchronized byte[] template() throws IOException {
+    if(template == null) {
+      String file = BoundNative.class.getName()
+        .substring(BoundNative.class.getPackageName().length() + 1) + ".class";
+      try(InputStream in = BoundNative.class.getResourceAsStream(file)) {
+        if(in == null) throw new IOException("Missing " + file + ".");
+        template = in.readAllBytes();
+      }
+    }
+    return template;
+  }
+
+  // Only ever loaded as a hidden class by instantiate(); loaded normally it
+  // has no class data and fails to initialize.
+  static final class BoundNative extends NativeFunction {
+    private static final MethodHandle HANDLE;
+    static {
+      try {
+        HANDLE = MethodHandles.classData(MethodHandles.lookup(),
+          ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+      } catch(IllegalAccessException error) {
+        throw new ExceptionInInitializerError(error);
+      }
+    }
+
+    BoundNative(String name, int arity) {
+      super(name, arity);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      try {
+        return (Object)HANDLE.invokeExact(interpreter, arguments);
+      } catch(RuntimeError | Error error) {
+        throw error;
+      } catch(Throwable error) {                                                // Whatever the Java method threw
+        String message = error.getMessage();
+        throw new RuntimeError(message != null ?
+          message : error.getClass().getSimpleName() + ".");
+      }
+    }
+  }
+
+  // Makes a handle return the Lox value for what the method returns.
+  private static MethodHandle boxResult(MethodHandle handle, Class<?> type) {
+    if(type == void.class) {
+      MethodHandle nil = MethodHandles.dropArguments(
+        MethodHandles.constant(Object.class, null), 0,
+        handle.type().parameterList());
+      return MethodHandles.foldArguments(nil, handle);                          // Runs the method, then returns nil
+    }
+    if(type == double.class) {
+      return MethodHandles.filterReturnValue(handle, DOUBLE_VALUE);
+    }
+    if(type == int.class) {
+      handle = handle.asType(handle.type().changeReturnType(long.class));
+      type = long.class;
+    }
+    if(type == long.class) {
+      return MethodHandles.filterReturnValue(handle, LONG_VALUE);
+    }
+    return handle.asType(handle.type().changeReturnType(Object.class));         // Boxes a boolean
+  }
+
+  // A handle (List)T that takes argument `index` from the argument list,
+  // checks it and converts it to T. Reading and converting happen in one
+  // method so a call goes through as few adapters as possible.
+  private static MethodHandle argument(Class<?> type, int index) {
+    MethodHandle convert;
+    if(type == Object.class) convert = ARG_OBJECT;
+    else if(type == double.class) convert = ARG_DOUBLE;
+    else if(type == long.class) convert = ARG_LONG;
+    else if(type == int.class) convert = ARG_INT;
+    else if(type == boolean.class) convert = ARG_BOOLEAN;
+    else if(type.isPrimitive()) {
+      throw new IllegalArgumentException("Natives can't take a " + type + ".");
+    } else {
+      convert = MethodHandles.insertArguments(ARG_CHECKED, 2, type)
+        .asType(MethodType.methodType(type, List.class, int.class));
+    }
+    return MethodHandles.insertArguments(convert, 1, index);
+  }
+
+  private static Object argObject(List<Object> arguments, int index) {
+    return arguments.get(index);
+  }
+
+  private static double argDouble(List<Object> arguments, int index) {
+    Object value = arguments.get(index);
+    if(value instanceof Long) return (double)(long)value;
+    if(value instanceof Double) return (double)value;
+    throw mismatch(index, "a number");
+  }
+
+  private static long argLong(List<Object> arguments, int index) {
+    Object value = Numbers.integral(arguments.get(index));
+    if(value instanceof Long) return (long)value;
+    throw mismatch(index, "an integer");
+  }
+
+  private static int argInt(List<Object> arguments, int index) {
+    Object value = Numbers.integral(arguments.get(index));
+    if(value instanceof Long && (long)value == (int)(long)value) {
+      return (int)(long)value;
+    }
+    throw mismatch(index, "an integer");
+  }
+
+  private static boolean argBoolean(List<Object> arguments, int index) {
+    Object value = arguments.get(index);
+    if(value instanceof Boolean) return (boolean)value;
+    throw mismatch(index, "a boolean");
+  }
+
+  private static Object argChecked(List<Object> arguments, int index,
+      Class<?> type) {
+    Object value = arguments.get(index);
+    if(type.isInstance(value)) return value;
+    if(type == String.class) throw mismatch(index, "a string");
+    if(type == LoxArray.class) throw mismatch(index, "an array");
+    if(type == LoxMap.class) throw mismatch(index, "a map");
+    throw mismatch(index, "a " + type.getSimpleName());
+  }
+
+  private static RuntimeError mismatch(int index, String expected) {
+    return new RuntimeError(
+      "Argument " + (index + 1) + " must be " + expected + ".");
+  }
+
+  private static final MethodHandle ARG_OBJECT;
+  private static final MethodHandle ARG_DOUBLE;
+  private static final MethodHandle ARG_LONG;
+  private static final MethodHandle ARG_INT;
+  private static final MethodHandle ARG_BOOLEAN;
+  private static final MethodHandle ARG_CHECKED;
+  private static final MethodHandle DOUBLE_VALUE;
+  private static final MethodHandle LONG_VALUE;
+  static {
+    try {
+      ARG_OBJECT = findArgument("argObject", Object.class);
+      ARG_DOUBLE = findArgument("argDouble", double.class);
+      ARG_LONG = findArgument("argLong", long.class);
+      ARG_INT = findArgument("argInt", int.class);
+      ARG_BOOLEAN = findArgument("argBoolean", boolean.class);
+      ARG_CHECKED = lookup.findStatic(NativeRegistry.class, "argChecked",
+        MethodType.methodType(Object.class,
+          List.class, int.class, Class.class));
+      DOUBLE_VALUE = lookup.findStatic(Numbers.class, "valueOf",
+        MethodType.methodType(Object.class, double.class));
+      LONG_VALUE = lookup.findStatic(Numbers.class, "valueOf",
+        MethodType.methodType(Object.class, long.class));
+    } catch(ReflectiveOperationException error) {
+      throw new ExceptionInInitializerError(error);
+    }
+  }
+
+  private static MethodHandle findArgument(String name, Class<?> type)
+      throws ReflectiveOperationException {
+    return lookup.findStatic(NativeRegistry.class, name,
+      MethodType.methodType(type, List.class, int.class));
+  }
+}
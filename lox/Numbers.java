@@ -0,0 +1,143 @@
+package lox;
+
+// Arithmetic on Lox numbers. A number is either a Long, used for integral
+// values that a double can hold exactly (|n| <= 2^53), or a Double for
+// everything else. Every operation returns exactly what double-only arithmetic
+// would have produced, it just avoids floating-point work and boxing of new
+// Doubles while the values stay integral.
+final class Numbers {
+  static final long MAX_EXACT = 1L << 53;
+
+  private Numbers() {}
+
+  static boolean isNumber(Object value) {
+    return value instanceof Long || value instanceof Double;
+  }
+
+  static double toDouble(Object value) {
+    if(value instanceof Long) return (double)(long)value;
+    return (double)value;
+  }
+
+  // Picks the representation for a double coming from outside the runtime,
+  // e.g. a number literal.
+  static Object valueOf(double value) {
+    if(value == Math.rint(value) && Math.abs(value) <= MAX_EXACT &&
+        !(value == 0.0 && 1 / value < 0)) {                                     // -0.0 has to stay a Double
+      return (long)value;
+    }
+    return value;
+  }
+
+  // The same for a long, e.g. one returned by a native.
+  static Object valueOf(long value) {
+    if(fits(value)) return value;
+    return (double)value;
+  }
+
+  // An integral Double, like the result of 0.5 * 4, as the Long it stands
+  // for, so that places wanting an integer accept it. Anything else comes
+  // back as it is.
+  static Object integral(Object value) {
+    if(value instanceof Double) return valueOf((double)value);
+    return value;
+  }
+
+  private static boolean fits(long value) {
+    return value >= -MAX_EXACT && value <= MAX_EXACT;
+  }
+
+  static Object add(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) {
+      long x = (long)a, y = (long)b;
+      long result = x + y;                                                      // Can't overflow, both are within 2^53
+      if(fits(result)) return result;
+      return (double)x + (double)y;
+    }
+    return toDouble(a) + toDouble(b);
+  }
+
+  static Object subtract(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) {
+      long x = (long)a, y = (long)b;
+      long result = x - y;
+      if(fits(result)) return result;
+      return (double)x - (double)y;
+    }
+    return toDouble(a) - toDouble(b);
+  }
+
+  static Object multiply(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) {
+      long x = (long)a, y = (long)b;
+      long high = Math.multiplyHigh(x, y);
+      long result = x * y;
+      // The product must not overflow, must stay exact, and must not be a zero
+      // that double arithmetic would have made negative (e.g. 0 * -1).
+      if(((high == 0 && result >= 0) || (high == -1 && result < 0)) &&
+          fits(result) && !(result == 0 && (x < 0 || y < 0))) {
+        return result;
+      }
+      return (double)x * (double)y;
+    }
+    return toDouble(a) * toDouble(b);
+  }
+
+  static Object divide(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) {
+      long x = (long)a, y = (long)b;
+      if(y != 0 && x % y == 0 && !(x == 0 && y < 0)) return x / y;              // Only exact quotients stay integral
+      return (double)x / (double)y;
+    }
+    return toDouble(a) / toDouble(b);
+  }
+
+  static Object negate(Object a) {
+    if(a instanceof Long) {
+      long x = (long)a;
+      if(x != 0) return -x;
+      return -0.0;
+    }
+    return -(double)a;
+  }
+
+  static boolean greater(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) return (long)a > (long)b;
+    return toDouble(a) > toDouble(b);
+  }
+
+  static boolean greaterEqual(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) return (long)a >= (long)b;
+    return toDouble(a) >= toDouble(b);
+  }
+
+  static boolean less(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) return (long)a < (long)b;
+    return toDouble(a) < toDouble(b);
+  }
+
+  static boolean lessEqual(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) return (long)a <= (long)b;
+    return toDouble(a) <= toDouble(b);
+  }
+
+  // Same answer as Double.equals() on the double values: NaN equals itself and
+  // 0 is not equal to -0.
+  static boolean equal(Object a, Object b) {
+    if(a instanceof Long && b instanceof Long) return (long)a == (long)b;
+    return Double.compare(toDouble(a), toDouble(b)) == 0;
+  }
+
+  static String toString(Object number) {
+    if(number instanceof Long) {
+      long value = (long)number;
+      if(value > -10_000_000 && value < 10_000_000) return Long.toString(value);
+    }
+
+    String text = Double.toString(toDouble(number));
+    if(text.endsWith(".0")) {
+      text = text.substring(0, text.length() - 2);                              // Removing the .0 from the end of a double
+    }
+    return text;
+  }
+}
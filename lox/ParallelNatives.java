@@ -0,0 +1,174 @@
+package lox;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Natives that run a callable over a range or an array on a ForkJoin pool.
+// The source is either an array or a count n, meaning the numbers 0 to n - 1.
+//
+//   parallelMap(source, fn)              -> array of fn(x) for each x
+//   parallelReduce(source, fn, initial)  -> fn(initial, fold of the source)
+//
+// The callable has to be pure: a worker may only change the variables, arrays,
+// maps and instances it created itself (see Interpreter.mayChange()), so
+// changing anything else, like a captured counter or the source array, is a
+// runtime error. Checking that costs nothing up front, however much the
+// callable can reach. Every worker gets its own Interpreter (see Interpreter's
+// worker constructor), and all of them charge the caller's memory account.
+// Ranges are split in half down to LEAF elements no matter how many threads the
+// pool has, and partial results are always combined as fn(left, right), so a
+// reduction gives the same answer on every run and every machine, even for a
+// callable that isn't exactly associative, like floating point addition.
+class ParallelNatives {
+  private static final int LEAF = 512;                                          // Elements handled sequentially by one task
+
+  private ParallelNatives() {}
+
+  static void define(Environment globals) {
+    new NativeFunction("parallelMap", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Source source = checkSource(arguments.get(0));
+        LoxCallable function = checkCallable(arguments.get(1), 1);
+
+        Object[] results = new Object[source.size];
+        run(interpreter, source, new Work() {
+          @Override
+          public Object leaf(Interpreter worker, int from, int to) {
+            for(int i = from; i < to; i++) {
+              results[i] = function.call(worker, List.of(source.get(i)));      // Each task writes only its own slots
+            }
+            return null;
+          }
+
+          @Override
+          public Object combine(Interpreter worker, Object left, Object right) {
+            return null;
+          }
+        });
+
+        LoxArray array = new LoxArray();
+        array.owner = interpreter.owner();
+        for(Object result : results) array.add(result);
+        ArrayNatives.charge(interpreter, array.footprint() + array.payload());
+        return array;
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("parallelReduce", 3) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Source source = checkSource(arguments.get(0));
+        LoxCallable function = checkCallable(arguments.get(1), 2);
+        Object initial = arguments.get(2);
+        if(source.size == 0) return initial;
+
+        Object folded = run(interpreter, source, new Work() {
+          @Override
+          public Object leaf(Interpreter worker, int from, int to) {
+            Object result = source.get(from);
+            for(int i = from + 1; i < to; i++) {
+              result = function.call(worker, List.of(result, source.get(i)));
+            }
+            return result;
+          }
+
+          @Override
+          public Object combine(Interpreter worker, Object left, Object right) {
+            return function.call(worker, List.of(left, right));
+          }
+        });
+        return function.call(interpreter, List.of(initial, folded));
+      }
+    }.defineIn(globals);
+  }
+
+  private interface Work {
+    Object leaf(Interpreter worker, int from, int to);
+    Object combine(Interpreter worker, Object left, Object right);
+  }
+
+  // Either an array or the range [0, size).
+  private static class Source {
+    final LoxArray array;
+    final int size;
+
+    Source(LoxArray array, int size) {
+      this.array = array;
+      this.size = size;
+    }
+
+    Object get(int i) {
+      return array != null ? array.get(i) : (Object)(long)i;
+    }
+  }
+
+  private static Object run(Interpreter interpreter, Source source,
+                            Work work) {
+    return ForkJoinPool.commonPool().invoke(
+      new Task(interpreter, work, 0, source.size));
+  }
+
+  private static class Task extends RecursiveTask<Object> {
+    private static final long serialVersionUID = 1L;
+
+    private final Interpreter parent;
+    private final Work work;
+    private final int from;
+    private final int to;
+
+    Task(Interpreter parent, Work work, int from, int to) {
+      this.parent = parent;
+      this.work = work;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Object compute() {
+      Interpreter worker = parent.worker();
+
+      if(to - from <= LEAF) return work.leaf(worker, from, to);
+
+      int middle = (from + to) >>> 1;
+      Task left = new Task(parent, work, from, middle);
+      Task right = new Task(parent, work, middle, to);
+      right.fork();
+
+      Object leftResult;
+      try {
+        leftResult = left.compute();
+      } catch(RuntimeException error) {
+        right.quietlyJoin();                                                    // Don't leave it running once we return
+        throw error;                                                            // The leftmost error wins, like a sequential loop
+      }
+      Object rightResult = right.join();
+
+      return work.combine(worker, leftResult, rightResult);
+    }
+  }
+
+  private static Source checkSource(Object value) {
+    value = Numbers.integral(value);
+    if(value instanceof LoxArray) {
+      LoxArray array = (LoxArray)value;
+      return new Source(array, array.size());
+    }
+    if(value instanceof Long && (long)value >= 0 &&
+        (long)value <= Integer.MAX_VALUE) {
+      return new Source(null, (int)(long)value);
+    }
+    throw new RuntimeError(
+      "Source must be an array or a non-negative integer count.");
+  }
+
+  private static LoxCallable checkCallable(Object value, int arity) {
+    if(value instanceof LoxCallable &&
+        ((LoxCallable)value).arity() == arity) {
+      return (LoxCallable)value;
+    }
+    throw new RuntimeError(
+      "Expected a function taking " + arity + " argument(s).");
+  }
+}
@@ -0,0 +1,140 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static lox.TokenType.*;
+
+// Scans large sources by cutting them into chunks and running one Scanner per
+// chunk on a ForkJoin pool. The token stream (and every reported error) is the
+// same as what a single sequential Scanner would produce. The source can also
+// be UTF-8 bytes, which are scanned by ByteScanners without being decoded.
+class ParallelScanner {
+  static final int PARALLEL_THRESHOLD = 1 << 20;                                // Sources smaller than this aren't worth splitting
+  private static final int MIN_CHUNK = 64 * 1024;
+
+  private final String source;                                                  // One of these two is null
+  private final byte[] bytes;
+  private final ForkJoinPool pool;
+
+  ParallelScanner(String source) {
+    this(source, ForkJoinPool.commonPool());
+  }
+
+  ParallelScanner(String source, ForkJoinPool pool) {
+    this.source = source;
+    this.bytes = null;
+    this.pool = pool;
+  }
+
+  ParallelScanner(byte[] bytes) {
+    this.source = null;
+    this.bytes = bytes;
+    this.pool = ForkJoinPool.commonPool();
+  }
+
+  List<Token> scanTokens() {
+    int parallelism = pool.getParallelism();
+    int length = source != null ? source.length() : bytes.length;
+    int target = Math.max(MIN_CHUNK, length / (parallelism * 4));
+
+    // Cheap pre-pass that only tracks whether we are inside a string literal or
+    // a comment. A newline seen outside of both is a safe place to split, since
+    // no token other than a string can span lines. We also remember the line
+    // number each chunk starts on.
+    List<Integer> bounds = new ArrayList<>();
+    List<Integer> lines = new ArrayList<>();
+    bounds.add(0);
+    lines.add(1);
+
+    boolean inString = false;
+    boolean inComment = false;
+    int line = 1;
+    int next = target;
+    for(int i = 0; i < length; i++) {
+      char c = charAt(i);
+      if(c == '\n') {
+        line++;
+        inComment = false;
+        if(!inString && i + 1 >= next && i + 1 < length) {
+          bounds.add(i + 1);
+          lines.add(line);
+          next = i + 1 + target;
+        }
+      } else if(inString) {
+        if(c == '"') inString = false;
+      } else if(!inComment) {
+        if(c == '"') {
+          inString = true;
+        } else if(c == '/' && i + 1 < length && charAt(i + 1) == '/') {
+          inComment = true;
+        }
+      }
+    }
+    bounds.add(length);
+
+    int chunkCount = bounds.size() - 1;
+    List<ChunkTask> tasks = new ArrayList<>();
+    for(int i = 0; i < chunkCount; i++) {
+      tasks.add(new ChunkTask(bounds.get(i), bounds.get(i + 1), lines.get(i)));
+    }
+
+    if(chunkCount == 1) {
+      tasks.get(0).compute();
+    } else {
+      pool.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    }
+
+    // Stitch the chunks back together and report errors in source order.
+    List<Token> tokens = new ArrayList<>();
+    for(ChunkTask task : tasks) {
+      tokens.addAll(task.tokens);
+      for(Scanner.ScanError error : task.errors) {
+        Lox.error(error.line, error.message);
+      }
+    }
+
+    tokens.add(new Token(EOF, "", null, line));                                 // Every newline bumps the line, so this matches Scanner
+    return tokens;
+  }
+
+  // Every delimiter the pre-pass looks for is ASCII, and UTF-8 never uses an
+  // ASCII byte inside a multi-byte character, so bytes can be looked at as
+  // they are.
+  private char charAt(int index) {
+    if(source != null) return source.charAt(index);
+    return (char)(bytes[index] & 0xff);
+  }
+
+  private class ChunkTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final int line;
+    final List<Scanner.ScanError> errors = new ArrayList<>();
+    List<Token> tokens;
+
+    ChunkTask(int from, int to, int line) {
+      this.from = from;
+      this.to = to;
+      this.line = line;
+    }
+
+    @Override
+    protected void compute() {
+      if(source != null) {
+        tokens = new Scanner(source, from, to, line).scanChunk(errors);
+      } else {
+        tokens = new ByteScanner(bytes, from, to, line).scanChunk(errors);
+      }
+    }
+  }
+}
@@ -2,18 +2,49 @@ package lox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
 import static lox.TokenType.*;
 
 class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
-  private int current = 0;
+  private enum FunctionType { NONE, FUNCTION, INITIALIZER, METHOD }
+  private enum ClassType { NONE, CLASS, SUBCLASS }
+
+  private final Supplier<Token> tokens;                                         // Pulled one at a time, never backed up
+  private Token previous = null;
+  private Token next;
+  private boolean hadError = false;                                             // Errors from this parse only (Lox.hadError is shared)
+  private List<Scanner.ScanError> deferredErrors = null;                        // Where errors go instead of Lox.error()
+  private int loopDepth = 0;                                                    // How many loops enclose the current statement
+  private FunctionType function = FunctionType.NONE;                            // Innermost function being parsed
+  private ClassType currentClass = ClassType.NONE;
+  private final Map<String, String> names = new HashMap<>();
 
   Parser(List<Token> tokens) {
+    this(tokens.iterator()::next);
+  }
+
+  // Scans as it parses, so only the tokens of the declaration being parsed
+  // are held at a time.
+  Parser(Scanner scanner) {
+    this(scanner::nextToken);
+  }
+
+  // Collects syntax errors in `errors` instead of reporting them, for
+  // modules compiled on another thread.
+  Parser(List<Token> tokens, List<Scanner.ScanError> errors) {
+    this(tokens);
+    this.deferredErrors = errors;
+  }
+
+  private Parser(Supplier<Token> tokens) {
     this.tokens = tokens;
+    this.next = tokens.get();
   }
 
   List<Stmt> parse() {
@@ -25,13 +56,26 @@ class Parser {
     return statements;
   }
 
+  // For running top-level declarations one at a time as they're parsed; see
+  // Lox.runIncremental. next() returns null for a declaration with a syntax
+  // error, after reporting it.
+  boolean hasNext() {
+    return !isAtEnd();
+  }
+
+  Stmt next() {
+    return declaration();
+  }
+
   private Expr expression() {                                                   // expression -> equality
     return assignment();
   }
 
   private Stmt declaration() {
     try {
-      if(match(VAR)) return varDeclaration();                                   // declaration -> varDecl | statement
+      if(match(CLASS)) return classDeclaration();                               // declaration -> classDecl | funDecl | varDecl | statement
+      if(match(FUN)) return function(FunctionType.FUNCTION);
+      if(match(VAR)) return varDeclaration();
       return statement();
     } catch (ParseError error) {
       synchronize();
@@ -40,16 +84,35 @@ class Parser {
   }
 
   private Stmt statement() {                                                    // statement -> ifStmt | printStmt | block
+    if(match(BREAK)) return breakStatement();
+    if(match(CONTINUE)) return continueStatement();
     if(match(FOR)) return forStatement();
     if(match(IF)) return ifStatement();
+    if(match(IMPORT)) return importStatement();
     if(match(PRINT)) return printStatement();
+    if(match(RETURN)) return returnStatement();
     if(match(WHILE)) return whileStatement();
-    if(match(LEFT_BRACE)) return new Stmt.Block(block());
+    if(match(LEFT_BRACE)) return new Stmt.Block(previous().line, block());
 
     return expressionStatement();
   }
 
+  private Stmt breakStatement() {                                               // breakStmt -> "break" ";"
+    Token keyword = previous();
+    if(loopDepth == 0) error(keyword, "Can't use 'break' outside of a loop.");
+    consume(SEMICOLON, "Expect ';' after 'break'.");
+    return new Stmt.Break(keyword.line);
+  }
+
+  private Stmt continueStatement() {                                            // continueStmt -> "continue" ";"
+    Token keyword = previous();
+    if(loopDepth == 0) error(keyword, "Can't use 'continue' outside of a loop.");
+    consume(SEMICOLON, "Expect ';' after 'continue'.");
+    return new Stmt.Continue(keyword.line);
+  }
+
   private Stmt forStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
     Stmt initializer;
@@ -76,31 +139,24 @@ class Parser {
       increment = expression();
     }
     consume(RIGHT_PAREN, "Expect ')' after for clauses.");
-    Stmt body = statement();
-
-    // If there is an increment statement, add it to the list of statements to
-    // run after the body of the loop has executed.
-    if(increment != null) {
-      body = new Stmt.Block( // New body
-        Arrays.asList(
-          body,              // Old body
-          new Stmt.Expression(increment))); // Append increment
-    }
+    Stmt body = loopBody();
 
-    // If no condition, substitute "true" for infinite loop
-    // Otherwise prepend the condition to the body (old body + increment)
+    // If no condition, substitute "true" for infinite loop. The increment is
+    // kept on the loop itself rather than appended to the body, so that it
+    // still runs after a `continue`.
     if(condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = new Stmt.While(condition, keyword.line, body, increment);
 
     // If there's an initializer, prepend it.
     if(initializer != null) {
-      body = new Stmt.Block(Arrays.asList(initializer, body));
+      body = new Stmt.Block(keyword.line, Arrays.asList(initializer, body));
     }
 
     return body;
   }
 
   private Stmt ifStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'if'.");
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after if condition.");
@@ -111,13 +167,97 @@ class Parser {
       elseBranch = statement();
     }
 
-    return new Stmt.If(condition, thenBranch, elseBranch);
+    return new Stmt.If(condition, keyword.line, thenBranch, elseBranch);
+  }
+
+  private Stmt importStatement() {                                              // importStmt -> "import" STRING ";"
+    Token path = consume(STRING, "Expect module path after 'import'.");
+    consume(SEMICOLON, "Expect ';' after module path.");
+    return new Stmt.Import((String)path.literal, path.line);
   }
 
   private Stmt printStatement() {                                               // printStmt -> "print" expression ";"
+    Token keyword = previous();
     Expr value = expression();
     consume(SEMICOLON, "Expect ';' after value.");
-    return new Stmt.Print(value);
+    return new Stmt.Print(value, keyword.line);
+  }
+
+  private Stmt returnStatement() {                                              // returnStmt -> "return" expression? ";"
+    Token keyword = previous();
+    if(function == FunctionType.NONE) {
+      error(keyword, "Can't return from top-level code.");
+    }
+
+    Expr value = null;
+    if(!check(SEMICOLON)) {
+      if(function == FunctionType.INITIALIZER) {
+        error(keyword, "Can't return a value from an initializer.");
+      }
+      value = expression();
+    }
+
+    consume(SEMICOLON, "Expect ';' after return value.");
+    return new Stmt.Return(keyword.line, value);
+  }
+
+  private Stmt classDeclaration() {                                             // classDecl -> "class" IDENTIFIER ( "<" IDENTIFIER )? "{" function* "}"
+    Token name = consume(IDENTIFIER, "Expect class name.");
+
+    Expr.Variable superclass = null;
+    if(match(LESS)) {
+      Token superName = consume(IDENTIFIER, "Expect superclass name.");
+      if(superName.lexeme.equals(name.lexeme)) {
+        error(superName, "A class can't inherit from itself.");
+      }
+      superclass = new Expr.Variable(name(superName), superName.line);
+    }
+
+    consume(LEFT_BRACE, "Expect '{' before class body.");
+
+    ClassType enclosingClass = currentClass;
+    currentClass = superclass != null ? ClassType.SUBCLASS : ClassType.CLASS;
+    List<Stmt.Function> methods = new ArrayList<>();
+    try {
+      while(!check(RIGHT_BRACE) && !isAtEnd()) {
+        boolean init = peek().lexeme.equals("init");
+        methods.add(function(init ? FunctionType.INITIALIZER : FunctionType.METHOD));
+      }
+    } finally {
+      currentClass = enclosingClass;
+    }
+
+    consume(RIGHT_BRACE, "Expect '}' after class body.");
+    return new Stmt.Class(name(name), name.line, superclass, methods);
+  }
+
+  private Stmt.Function function(FunctionType type) {                           // function -> IDENTIFIER "(" parameters? ")" block
+    String kind = type == FunctionType.FUNCTION ? "function" : "method";
+    Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+    consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+    List<String> parameters = new ArrayList<>();
+    if(!check(RIGHT_PAREN)) {
+      do {
+        if(parameters.size() >= 255) {
+          error(peek(), "Can't have more than 255 parameters.");
+        }
+        parameters.add(name(consume(IDENTIFIER, "Expect parameter name.")));
+      } while(match(COMMA));
+    }
+    consume(RIGHT_PAREN, "Expect ')' after parameters.");
+
+    consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+    FunctionType enclosingFunction = function;
+    int enclosingLoops = loopDepth;
+    function = type;
+    loopDepth = 0;                                                              // A loop outside the function can't be broken out of
+    try {
+      List<Stmt> body = block();
+      return new Stmt.Function(name(name), name.line, parameters, body);
+    } finally {
+      function = enclosingFunction;
+      loopDepth = enclosingLoops;
+    }
   }
 
   private Stmt varDeclaration() {                                               // varDecl -> "var" IDENTIFIER ( "=" expression )? ";"
@@ -129,22 +269,33 @@ class Parser {
     }
 
     consume(SEMICOLON, "Expect ';' after variable declaration.");
-    return new Stmt.Var(name, initializer);
+    return new Stmt.Var(name(name), name.line, initializer);
   }
 
   private Stmt whileStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'while'.");
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after condition.");
-    Stmt body = statement();
+    Stmt body = loopBody();
 
-    return new Stmt.While(condition, body);
+    return new Stmt.While(condition, keyword.line, body, null);
+  }
+
+  private Stmt loopBody() {
+    loopDepth++;
+    try {
+      return statement();
+    } finally {
+      loopDepth--;
+    }
   }
 
   private Stmt expressionStatement() {                                          // exprStmt -> expression ";"
+    Token first = peek();                                                       // Statement positions are for tracing and coverage
     Expr expr = expression();
     consume(SEMICOLON, "Expect ';' after value.");
-    return new Stmt.Expression(expr);
+    return new Stmt.Expression(expr, first.line);
   }
 
   private List<Stmt> block() {
@@ -173,8 +324,14 @@ class Parser {
       Expr value = assignment();
 
       if(expr instanceof Expr.Variable) {
-        Token name = ((Expr.Variable)expr).name;
-        return new Expr.Assign(name, value);
+        Expr.Variable variable = (Expr.Variable)expr;
+        return new Expr.Assign(variable.name, variable.line, value);
+      } else if(expr instanceof Expr.Index) {
+        Expr.Index index = (Expr.Index)expr;
+        return new Expr.SetIndex(index.object, index.line, index.index, value);
+      } else if(expr instanceof Expr.Get) {
+        Expr.Get get = (Expr.Get)expr;
+        return new Expr.Set(get.object, get.name, get.line, value);
       }
 
       error(equals, "Invalid assignment target.");
@@ -189,7 +346,7 @@ class Parser {
     while(match(OR)) {
       Token operator = previous();
       Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
+      expr = new Expr.Logical(expr, operator.type, right);
     }
 
     return expr;
@@ -201,7 +358,7 @@ class Parser {
     while(match(AND)) {
       Token operator = previous();
       Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
+      expr = new Expr.Logical(expr, operator.type, right);
     }
 
     return expr;
@@ -213,7 +370,7 @@ class Parser {
     while(match(BANG_EQUAL, EQUAL_EQUAL)) {
       Token operator = previous();
       Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
+      expr = new Expr.Binary(expr, operator.type, operator.line, right);
     }
 
     return expr;
@@ -225,7 +382,7 @@ class Parser {
     while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
       Token operator = previous();
       Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
+      expr = new Expr.Binary(expr, operator.type, operator.line, right);
     }
 
     return expr;
@@ -237,7 +394,7 @@ class Parser {
     while(match(MINUS, PLUS)) {
       Token operator = previous();
       Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
+      expr = new Expr.Binary(expr, operator.type, operator.line, right);
     }
 
     return expr;
@@ -249,7 +406,7 @@ class Parser {
     while (match(SLASH, STAR)) {
       Token operator = previous();
       Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
+      expr = new Expr.Binary(expr, operator.type, operator.line, right);
     }
 
     return expr;
@@ -259,7 +416,7 @@ class Parser {
     if(match(BANG, MINUS)) {                                                    //        | primary
       Token operator = previous();
       Expr right = unary();
-      return new Expr.Unary(operator, right);
+      return new Expr.Unary(operator.type, operator.line, right);
     }
 
     return call();
@@ -280,7 +437,7 @@ class Parser {
 
     Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
 
-    return new Expr.Call(callee, paren, arguments);
+    return new Expr.Call(callee, paren.line, arguments);
   }
 
   private Expr call() {
@@ -289,6 +446,13 @@ class Parser {
     while(true) {
       if(match(LEFT_PAREN)) {
         expr = finishCall(expr);
+      } else if(match(LEFT_BRACKET)) {                                          // Indexing into an array, e.g. a[i]
+        Expr index = expression();
+        Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+        expr = new Expr.Index(expr, bracket.line, index);
+      } else if(match(DOT)) {                                                   // Property access, e.g. point.x
+        Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+        expr = new Expr.Get(expr, name(name), name.line);
       } else {
         break;
       }
@@ -306,8 +470,29 @@ class Parser {
       return new Expr.Literal(previous().literal);
     }
 
+    if(match(SUPER)) {
+      Token keyword = previous();
+      if(currentClass == ClassType.NONE) {
+        error(keyword, "Can't use 'super' outside of a class.");
+      } else if(currentClass != ClassType.SUBCLASS) {
+        error(keyword, "Can't use 'super' in a class with no superclass.");
+      }
+      consume(DOT, "Expect '.' after 'super'.");
+      Token method = consume(IDENTIFIER, "Expect superclass method name.");
+      return new Expr.Super(name(method), keyword.line);
+    }
+
+    if(match(THIS)) {
+      Token keyword = previous();
+      if(currentClass == ClassType.NONE) {
+        error(keyword, "Can't use 'this' outside of a class.");
+      }
+      return new Expr.This(keyword.line);
+    }
+
     if(match(IDENTIFIER)) {
-      return new Expr.Variable(previous());
+      Token name = previous();
+      return new Expr.Variable(name(name), name.line);
     }
 
     if(match(LEFT_PAREN)) {                                                     // Grouping
@@ -319,6 +504,12 @@ class Parser {
     throw error(peek(), "Expect expression.");
   }
 
+  // Every occurrence of an identifier shares one String, so the AST doesn't
+  // keep a separate copy of the name per use.
+  private String name(Token token) {
+    return names.computeIfAbsent(token.lexeme, lexeme -> lexeme);
+  }
+
   private boolean match(TokenType... types) {
     for(TokenType type : types) {
       if(check(type)) {                                                         // Checks to see if current token's type is in the list of given types
@@ -342,7 +533,10 @@ class Parser {
   }
 
   private Token advance() {
-    if(!isAtEnd()) current++;                                                   // Consume current token
+    if(!isAtEnd()) {                                                            // Consume current token
+      previous = next;
+      next = tokens.get();
+    }
     return previous();
   }
 
@@ -351,15 +545,25 @@ class Parser {
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return next;
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return previous;
+  }
+
+  boolean hadError() {
+    return hadError;
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    hadError = true;
+    if(deferredErrors != null) {
+      deferredErrors.add(
+        new Scanner.ScanError(token.line, Lox.where(token), message));
+    } else {
+      Lox.error(token, message);
+    }
     return new ParseError();
   }
 
@@ -375,6 +579,9 @@ class Parser {
         case VAR:
         case FOR:
         case IF:
+        case IMPORT:
+        case BREAK:
+        case CONTINUE:
         case WHILE:
         case PRINT:
         case RETURN:
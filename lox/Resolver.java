@@ -0,0 +1,373 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Works out what each closure has to capture. A function's `captures` are
+// the local variables of enclosing functions and blocks that it (or a
+// function nested in it) uses; the interpreter copies just those into the
+// closure when the function is declared, instead of keeping the whole chain
+// of environments alive.
+//
+// Copying a value is only right if nobody assigns the variable afterwards.
+// A captured variable that is assigned anywhere gets `cell` set on its
+// declaration, and lives in an Environment.Cell that the declaring scope and
+// every closure share. Function and class names count as assigned, since
+// they're bound before their closures are made and filled in after.
+//
+// Top-level variables are never captured: closures keep a reference to the
+// top-level environment they were declared in and look them up there.
+//
+// Along the way it checks each function for side effects, for Memo: a body
+// (counting the functions nested in it) that doesn't print, import or assign
+// a top-level variable leaves `impurity` null, and `globals` lists the
+// top-level variables it uses. Those still have to be checked when it runs.
+// Isolate follows `globals` too, to copy only those into a spawned task.
+// A function named memo_something that isn't pure gets a warning here.
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private static class Local {
+    final int function;                                                         // Depth of the function that declared it
+    final Stmt declaration;                                                     // Var, Function or Class, or null for this/super
+    final int param;                                                            // Parameter index if declaration is the function
+    boolean captured = false;
+    boolean assigned = false;
+
+    Local(int function, Stmt declaration, int param) {
+      this.function = function;
+      this.declaration = declaration;
+      this.param = param;
+    }
+  }
+
+  // Open block and function scopes, innermost last. Top-level code has none.
+  private final List<Map<String, Local>> scopes = new ArrayList<>();
+
+  // Captures of each function being resolved, innermost last.
+  private final List<Set<String>> functions = new ArrayList<>();
+
+  // The functions themselves and the top-level variables they use.
+  private final List<Stmt.Function> declarations = new ArrayList<>();
+  private final List<Set<String>> globals = new ArrayList<>();
+
+  void resolve(List<Stmt> statements) {
+    for(Stmt statement : statements) {
+      if(statement != null) statement.accept(this);                             // null means the statement had a parse error
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    resolve(stmt.statements);
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    Local name = declare(stmt.name, stmt, -1);
+    if(name != null) name.assigned = true;
+    if(stmt.superclass != null) stmt.superclass.accept(this);
+
+    if(stmt.superclass != null) {
+      beginScope();
+      declare("super", null, -1);
+    }
+    for(Stmt.Function method : stmt.methods) {
+      resolveFunction(method, true);
+    }
+    if(stmt.superclass != null) endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    stmt.expression.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    Local name = declare(stmt.name, stmt, -1);                                  // Before the body, which may call itself
+    if(name != null) name.assigned = true;
+    resolveFunction(stmt, false);
+    return null;
+  }
+
+  private void resolveFunction(Stmt.Function function, boolean method) {
+    Set<String> captures = new LinkedHashSet<>();
+    functions.add(captures);
+    function.paramCells = new boolean[function.params.size()];
+    if(method) {
+      function.impurity = "it is a method";
+    } else if(!scopes.isEmpty()) {
+      function.impurity = "it isn't declared at the top level";                 // A new table for every closure wouldn't pay
+    } else {
+      function.impurity = null;
+    }
+    Set<String> uses = new LinkedHashSet<>();
+    declarations.add(function);
+    globals.add(uses);
+
+    beginScope();
+    if(method) declare("this", null, -1);                                       // Bound per call, so never a capture of the method itself
+    for(int i = 0; i < function.params.size(); i++) {
+      declare(function.params.get(i), function, i);
+    }
+    resolve(function.body);
+    endScope();
+
+    functions.remove(functions.size() - 1);
+    function.captures = new ArrayList<>(captures);
+    declarations.remove(declarations.size() - 1);
+    globals.remove(globals.size() - 1);
+    function.globals = new ArrayList<>(uses);
+
+    if(function.impurity != null &&                                             // Final now: only enclosing functions are still open
+        function.name.startsWith(Memo.OPT_IN_PREFIX)) {
+      System.err.println("[line " + function.line +
+        "] Warning: '" + function.name + "' isn't memoized because " +
+        function.impurity + ".");
+    }
+  }
+
+  // Every function being resolved does whatever the code in it does.
+  private void sideEffect(String impurity) {
+    for(Stmt.Function function : declarations) {
+      if(function.impurity == null) function.impurity = impurity;
+    }
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    stmt.condition.accept(this);
+    stmt.thenBranch.accept(this);
+    if(stmt.elseBranch != null) stmt.elseBranch.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    sideEffect("it imports a module");
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    sideEffect("it prints");
+    stmt.expression.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if(stmt.value != null) stmt.value.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    stmt.statement.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if(stmt.initializer != null) stmt.initializer.accept(this);                 // The initializer still sees any outer variable
+    declare(stmt.name, stmt, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    stmt.condition.accept(this);
+    stmt.body.accept(this);
+    if(stmt.increment != null) stmt.increment.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    expr.value.accept(this);
+    resolveLocal(expr.name, true);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    expr.left.accept(this);
+    expr.right.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    expr.callee.accept(this);
+    for(Expr argument : expr.arguments) {
+      argument.accept(this);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitCompareExpr(Expr.Compare expr) {
+    resolveLocal(expr.name, false);
+    if(expr.other != null) resolveLocal(expr.other, false);
+    return null;
+  }
+
+  @Override
+  public Void visitCompoundExpr(Expr.Compound expr) {
+    resolveLocal(expr.name, false);
+    expr.value.accept(this);
+    resolveLocal(expr.name, true);
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    expr.object.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    expr.expression.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitIncrementExpr(Expr.Increment expr) {
+    resolveLocal(expr.name, true);
+    return null;
+  }
+
+  @Override
+  public Void visitIndexExpr(Expr.Index expr) {
+    expr.object.accept(this);
+    expr.index.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    expr.left.accept(this);
+    expr.right.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    expr.object.accept(this);
+    expr.value.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitSetIndexExpr(Expr.SetIndex expr) {
+    expr.object.accept(this);
+    expr.index.accept(this);
+    expr.value.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    resolveLocal("super", false);
+    resolveLocal("this", false);                                                // The method is bound to it
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    resolveLocal("this", false);
+    return null;
+  }
+
+  @Override
+  public Void visitTracedCallExpr(Expr.TracedCall expr) {
+    return visitCallExpr(expr.call);
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    expr.right.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    resolveLocal(expr.name, false);
+    return null;
+  }
+
+  private void beginScope() {
+    scopes.add(new HashMap<>());
+  }
+
+  private void endScope() {
+    for(Local local : scopes.remove(scopes.size() - 1).values()) {
+      if(!local.captured || !local.assigned) continue;
+
+      switch(local.declaration.kind) {                                          // Never null: this and super aren't assigned
+        case Stmt.VAR: ((Stmt.Var)local.declaration).cell = true; break;
+        case Stmt.CLASS: ((Stmt.Class)local.declaration).cell = true; break;
+        case Stmt.FUNCTION: {
+          Stmt.Function function = (Stmt.Function)local.declaration;
+          if(local.param >= 0) {
+            function.paramCells[local.param] = true;
+          } else {
+            function.cell = true;
+          }
+          break;
+        }
+      }
+    }
+  }
+
+  // Returns null for a top-level declaration, which isn't tracked.
+  private Local declare(String name, Stmt declaration, int param) {
+    if(scopes.isEmpty()) return null;
+    Local local = new Local(functions.size(), declaration, param);
+    scopes.get(scopes.size() - 1).put(name, local);
+    return local;
+  }
+
+  private void resolveLocal(String name, boolean assign) {
+    for(int i = scopes.size() - 1; i >= 0; i--) {
+      Local local = scopes.get(i).get(name);
+      if(local == null) continue;
+
+      if(assign) local.assigned = true;
+      // Every function between the declaration and this use has to carry
+      // the variable along, so the inner ones can copy it from their parent.
+      for(int depth = local.function; depth < functions.size(); depth++) {
+        functions.get(depth).add(name);
+        local.captured = true;
+      }
+      return;
+    }
+
+    for(Set<String> uses : globals) uses.add(name);                             // Not local, so it's a top-level variable
+    if(assign) sideEffect("it assigns to '" + name + "'");
+  }
+}
@@ -1,10 +1,18 @@
 package lox;
 
 class RuntimeError extends RuntimeException {
-  final Token token;
+  static final int NO_LINE = -1;                                                // For errors raised by natives
 
-  RuntimeError(Token token, String message) {
+  final int line;                                                               // Line of the offending code
+
+  RuntimeError(int line, String message) {
     super(message);
-    this.token = token;
+    this.line = line;
+  }
+
+  // Used by natives, which don't know where they were called from. The
+  // interpreter attaches the call's line before reporting it.
+  RuntimeError(String message) {
+    this(NO_LINE, message);
   }
 }
@@ -9,21 +9,47 @@ import static lox.TokenType.*;
 
 class Scanner {
   private final String source;
+  private final int end;                                                        // Scanning stops at this index (exclusive)
   private final List<Token> tokens = new ArrayList<>();
   private int start = 0;                                                        // Tracks first character in lexeme
   private int current = 0;                                                      // Tracks current character
   private int line = 1;                                                         // Tracks which source line `current` is on
 
-  private static final Map<String, TokenType> keywords;
+  // When scanning one chunk of a larger file on a worker thread, errors are
+  // held here and reported by the caller in source order instead of being
+  // printed as soon as they are found.
+  private List<ScanError> deferredErrors = null;
+
+  // Also used by Parser for syntax errors that are reported later.
+  static class ScanError {
+    final int line;
+    final String where;                                                         // " at 'x'", " at end" or ""
+    final String message;
+
+    ScanError(int line, String message) {
+      this(line, "", message);
+    }
+
+    ScanError(int line, String where, String message) {
+      this.line = line;
+      this.where = where;
+      this.message = message;
+    }
+  }
+
+  static final Map<String, TokenType> keywords;                                 // Shared with ByteScanner
   static {
     keywords = new HashMap<>();
     keywords.put("and",    AND);
+    keywords.put("break",  BREAK);
     keywords.put("class",  CLASS);
+    keywords.put("continue", CONTINUE);
     keywords.put("else",   ELSE);
     keywords.put("false",  FALSE);
     keywords.put("for",    FOR);
     keywords.put("fun",    FUN);
     keywords.put("if",     IF);
+    keywords.put("import", IMPORT);
     keywords.put("nil",    NIL);
     keywords.put("or",     OR);
     keywords.put("print",  PRINT);
@@ -36,18 +62,57 @@ class Scanner {
   }
 
   Scanner(String source) {
+    this(source, 0, source.length(), 1);
+  }
+
+  // Scans only source[from, to), numbering lines starting at `line`. The range
+  // must begin and end outside of any string literal or comment.
+  Scanner(String source, int from, int to, int line) {
     this.source = source;
+    this.end = to;
+    this.start = from;
+    this.current = from;
+    this.line = line;
   }
 
   List<Token> scanTokens() {
+    scanRange();
+    tokens.add(new Token(EOF, "", null, line));                                 // Adds final EOF token to signify finish
+    return tokens;
+  }
+
+  // Like scanTokens(), but errors are collected for the caller to report.
+  List<Token> scanTokens(List<ScanError> errors) {
+    deferredErrors = errors;
+    return scanTokens();
+  }
+
+  // Scans the range without appending EOF and collects errors instead of
+  // reporting them, so that chunks can be stitched together afterwards.
+  List<Token> scanChunk(List<ScanError> errors) {
+    deferredErrors = errors;
+    scanRange();
+    return tokens;
+  }
+
+  // Scans only as far as the next token, so a parser can start before the
+  // rest of the source has been looked at. Returns EOF once the source is
+  // used up. Don't mix with scanTokens() on the same Scanner.
+  Token nextToken() {
+    while(tokens.isEmpty() && !isAtEnd()) {
+      start = current;
+      scanToken();                                                              // Adds at most one token
+    }
+    if(tokens.isEmpty()) return new Token(EOF, "", null, line);
+    return tokens.remove(0);
+  }
+
+  private void scanRange() {
     while(!isAtEnd()) {
       // beginning of next lexeme
       start = current;
       scanToken();
     }
-
-    tokens.add(new Token(EOF, "", null, line));                                 // Adds final EOF token to signify finish
-    return tokens;
   }
 
   private void scanToken() {
@@ -57,6 +122,8 @@ class Scanner {
       case ')': addToken(RIGHT_PAREN); break;
       case '{': addToken(LEFT_BRACE); break;
       case '}': addToken(RIGHT_BRACE); break;
+      case '[': addToken(LEFT_BRACKET); break;
+      case ']': addToken(RIGHT_BRACKET); break;
       case ',': addToken(COMMA); break;
       case '.': addToken(DOT); break;
       case '-': addToken(MINUS); break;
@@ -100,7 +167,7 @@ class Scanner {
         } else if(isAlpha(c)) {
           identifier();                                                         // Matching to an identifier (including reserved keywords)
         } else {
-          Lox.error(line, "Unexpected character.");                             // Reads invalid character but keeps scanning
+          error("Unexpected character.");                                       // Reads invalid character but keeps scanning
         }
         break;
     }
@@ -123,7 +190,8 @@ class Scanner {
       while(isDigit(peek())) advance();                                         // Getting digits after the decimal point
     }
 
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    double value = Double.parseDouble(source.substring(start, current));
+    addToken(NUMBER, Numbers.valueOf(value));                                   // Integral literals are stored as Long
   }
 
   private void string() {
@@ -133,7 +201,7 @@ class Scanner {
     }
 
     if(isAtEnd()) {
-      Lox.error(line, "Unterminated string.");                                  // Throws error if scanner reaches end of file before the string is terminated
+      error("Unterminated string.");                                            // Throws error if scanner reaches end of file before the string is terminated
       return;
     }
 
@@ -156,7 +224,7 @@ class Scanner {
   }
 
   private char peekNext() {
-    if(current + 1 >= source.length()) return '\0';
+    if(current + 1 >= end) return '\0';
     return source.charAt(current + 1);                                          // Getting next next character without consuming it
   }
 
@@ -175,13 +243,21 @@ class Scanner {
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();                                          // Checks if all characters have been consumed
+    return current >= end;                                                      // Checks if all characters have been consumed
   }
 
   private char advance() {
     return source.charAt(current++);                                            // Gets next character in source file
   }
 
+  private void error(String message) {
+    if(deferredErrors != null) {
+      deferredErrors.add(new ScanError(line, message));
+    } else {
+      Lox.error(line, message);
+    }
+  }
+
   private void addToken(TokenType type) {
     addToken(type, null);
   }
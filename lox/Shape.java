@@ -0,0 +1,68 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hidden class describing the layout of a LoxInstance's fields: which slot
+// of the instance's array each field name lives in. Instances that got the
+// same fields in the same order share one Shape, so a property access site
+// can remember the shape it last saw and the slot the name mapped to (a
+// Cache), and from then on a read is a shape comparison plus an array load.
+//
+// Every class has its own root shape with no fields. Adding a field moves an
+// instance along a transition to a child shape; transitions are created once
+// and shared, so shapes form a tree per class.
+class Shape {
+  final LoxClass klass;                                                         // Shapes never cross classes, so a cached method stays valid
+  private final Map<String, Integer> slots;
+  private final Map<String, Shape> transitions = new HashMap<>();
+
+  // What a Get or Set site remembers. Immutable, so a site's cache can be
+  // swapped in one write even while parallel workers run the same code.
+  static final class Cache {
+    final Shape shape;                                                          // Instances must have this shape for the entry to apply
+    final int slot;                                                             // Field slot, or -1 for a method
+    final LoxFunction method;                                                   // Unbound method, for Get sites that found one
+    final Shape next;                                                           // Set sites: shape after the store (same if the field exists)
+
+    Cache(Shape shape, int slot, LoxFunction method, Shape next) {
+      this.shape = shape;
+      this.slot = slot;
+      this.method = method;
+      this.next = next;
+    }
+  }
+
+  Shape(LoxClass klass) {
+    this.klass = klass;
+    this.slots = new HashMap<>();
+  }
+
+  private Shape(Shape parent, String field) {
+    klass = parent.klass;
+    slots = new HashMap<>(parent.slots);
+    slots.put(field, slots.size());
+  }
+
+  int size() {
+    return slots.size();
+  }
+
+  // Field names by slot, for Snapshot.
+  String[] fields() {
+    String[] fields = new String[slots.size()];
+    slots.forEach((field, slot) -> fields[slot] = field);
+    return fields;
+  }
+
+  // Slot of the field, or -1 if instances of this shape don't have it.
+  int slot(String field) {
+    Integer slot = slots.get(field);
+    return slot == null ? -1 : slot;
+  }
+
+  // Shape of an instance of this shape once `field` is added to it.
+  synchronized Shape with(String field) {
+    return transitions.computeIfAbsent(field, name -> new Shape(this, name));
+  }
+}
@@ -0,0 +1,522 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Saves the global environment left behind by a prelude script and restores
+// it into a fresh interpreter, so the prelude doesn't have to run again. A
+// snapshot is only used if it was written by this interpreter version for a
+// prelude with the same SHA-256 hash, and every module the prelude imported
+// still hashes the same too.
+//
+// Values are written depth first with a tag byte each. Arrays, maps,
+// functions, classes and instances get an id the first time they are
+// written, and later occurrences refer back to it, so shared and cyclic
+// structures come back with the same shape. Natives are stored by name and
+// rebound to the new interpreter's natives.
+//
+// A function is stored as its declaration, numbered by its place in the
+// prelude's or a module's tree, plus the environment it closes over. On
+// restore the source is compiled again (not run) to find the declaration.
+// Environments and cells are written as empty shells where they are first
+// met and filled in at the end, so a function never has to be built before
+// the closure that refers back to it. The modules' own top-level
+// environments are saved along with the globals and registered with the
+// interpreter again, so a later import of one doesn't run it a second time.
+class Snapshot {
+  private static final int MAGIC = 0x4C4F5853;                                  // "LOXS"
+
+  private static final byte NIL = 0;
+  private static final byte TRUE = 1;
+  private static final byte FALSE = 2;
+  private static final byte LONG = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte STRING = 5;
+  private static final byte ARRAY = 6;
+  private static final byte MAP = 7;
+  private static final byte NATIVE = 8;
+  private static final byte REF = 9;                                            // An object written earlier
+  private static final byte FUNCTION = 10;
+  private static final byte CLASS = 11;
+  private static final byte INSTANCE = 12;
+  private static final byte GLOBALS = 13;                                       // The interpreter's global environment
+  private static final byte MODULE = 14;                                        // A module's top-level environment
+  private static final byte ENVIRONMENT = 15;                                   // A new environment shell
+  private static final byte CELL = 16;                                          // A new cell shell
+  private static final byte SHELL = 17;                                         // An environment or cell written earlier
+
+  private Snapshot() {}
+
+  static String hash(byte[] source) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(source);
+      StringBuilder builder = new StringBuilder();
+      for(byte b : digest) builder.append(String.format("%02x", b));
+      return builder.toString();
+    } catch(NoSuchAlgorithmException error) {
+      throw new AssertionError(error);                                          // Every JVM has SHA-256
+    }
+  }
+
+  // `prelude` is the compiled prelude that has just run.
+  static void write(Path file, String preludeHash, List<Stmt> prelude,
+      Interpreter interpreter) throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try(DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      new Writer(out, prelude, interpreter).write(preludeHash);
+    } catch(IOException error) {
+      Files.deleteIfExists(temp);
+      throw error;
+    }
+
+    // Only replace the old snapshot once the new one is complete.
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Returns false, leaving the globals untouched, if there is no usable
+  // snapshot: it's missing, stale, or from another interpreter version.
+  // `prelude` compiles the prelude, and is only called if the snapshot
+  // holds a function declared there.
+  static boolean restore(Path file, String preludeHash,
+      Supplier<List<Stmt>> prelude, Interpreter interpreter) {
+    try(DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      return new Reader(in, prelude, interpreter).read(preludeHash);
+    } catch(NoSuchFileException error) {
+      return false;
+    } catch(IOException | RuntimeException error) {
+      return false;                                                             // Corrupt snapshot, just rerun the prelude
+    }
+  }
+
+  // Every function declaration in `statements`, in the order they appear.
+  // Writer and Reader both number declarations this way.
+  private static List<Stmt.Function> declarations(List<Stmt> statements) {
+    List<Stmt.Function> declarations = new ArrayList<>();
+    for(Stmt statement : statements) declarations(statement, declarations);
+    return declarations;
+  }
+
+  private static void declarations(Stmt stmt, List<Stmt.Function> out) {
+    if(stmt instanceof Stmt.Function) {
+      out.add((Stmt.Function)stmt);
+      for(Stmt statement : ((Stmt.Function)stmt).body) {
+        declarations(statement, out);
+      }
+    } else if(stmt instanceof Stmt.Class) {
+      for(Stmt.Function method : ((Stmt.Class)stmt).methods) {
+        declarations(method, out);
+      }
+    } else if(stmt instanceof Stmt.Block) {
+      for(Stmt statement : ((Stmt.Block)stmt).statements) {
+        declarations(statement, out);
+      }
+    } else if(stmt instanceof Stmt.If) {
+      declarations(((Stmt.If)stmt).thenBranch, out);
+      declarations(((Stmt.If)stmt).elseBranch, out);
+    } else if(stmt instanceof Stmt.While) {
+      declarations(((Stmt.While)stmt).body, out);
+    } else if(stmt instanceof Stmt.Traced) {
+      declarations(((Stmt.Traced)stmt).statement, out);
+    }
+  }
+
+  private static final class Writer {
+    private final DataOutputStream out;
+    private final Environment globals;
+    private final List<Path> modulePaths = new ArrayList<>();
+    private final List<Environment> moduleScopes = new ArrayList<>();
+    private final Map<Environment, Integer> modules = new IdentityHashMap<>();
+    private final Map<Stmt.Function, int[]> declarations =                      // Source (0 for the prelude) and number
+      new IdentityHashMap<>();
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final List<Object> shells = new ArrayList<>();                      // Environments and cells, filled in last
+    private final Map<Object, Integer> shellIds = new IdentityHashMap<>();
+    private String global;                                                      // The binding being written, for errors
+
+    Writer(DataOutputStream out, List<Stmt> prelude, Interpreter interpreter)
+        throws IOException {
+      this.out = out;
+      this.globals = interpreter.globals;
+      number(0, prelude);
+      for(Map.Entry<Path, Environment> module :
+          interpreter.modules().entrySet()) {
+        modules.put(module.getValue(), modulePaths.size());
+        modulePaths.add(module.getKey());
+        moduleScopes.add(module.getValue());
+        ModuleLoader.Module compiled = ModuleLoader.load(module.getKey());
+        number(modulePaths.size(), compiled.statements);
+      }
+    }
+
+    private void number(int source, List<Stmt> statements) {
+      List<Stmt.Function> found = Snapshot.declarations(statements);
+      for(int i = 0; i < found.size(); i++) {
+        declarations.put(found.get(i), new int[] { source, i });
+      }
+    }
+
+    void write(String preludeHash) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeUTF(Lox.VERSION);
+      out.writeUTF(preludeHash);
+      out.writeInt(modulePaths.size());
+      for(Path path : modulePaths) {
+        writeString(path.toString());
+        out.writeUTF(hash(Files.readAllBytes(path)));
+      }
+
+      writeBindings(globals);
+      for(Environment module : moduleScopes) writeBindings(module);
+
+      // Writing one shell's contents can meet new shells, which go on the end.
+      for(int i = 0; i < shells.size(); i++) {
+        Object shell = shells.get(i);
+        global = null;
+        if(shell instanceof Environment) {
+          writeBindings((Environment)shell);
+        } else {
+          writeValue(((Environment.Cell)shell).value);
+        }
+      }
+    }
+
+    private void writeBindings(Environment environment) throws IOException {
+      Map<String, Object> bindings = environment.bindings();
+      out.writeInt(bindings.size());
+      for(Map.Entry<String, Object> binding : bindings.entrySet()) {
+        if(environment == globals) global = binding.getKey();
+        writeString(binding.getKey());
+        writeValue(binding.getValue());
+      }
+    }
+
+    private void writeValue(Object value) throws IOException {
+      if(value == null) {
+        out.writeByte(NIL);
+      } else if(value instanceof Boolean) {
+        out.writeByte((boolean)value ? TRUE : FALSE);
+      } else if(value instanceof Long) {
+        out.writeByte(LONG);
+        out.writeLong((long)value);
+      } else if(value instanceof Double) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((double)value);
+      } else if(value instanceof String) {
+        out.writeByte(STRING);
+        writeString((String)value);
+      } else if(value instanceof NativeFunction) {
+        out.writeByte(NATIVE);
+        writeString(((NativeFunction)value).name());
+      } else if(value instanceof Environment ||
+          value instanceof Environment.Cell) {
+        writeShell(value);
+      } else if(ids.containsKey(value)) {
+        out.writeByte(REF);
+        out.writeInt(ids.get(value));
+      } else if(value instanceof LoxArray) {
+        ids.put(value, ids.size());
+        LoxArray array = (LoxArray)value;
+        out.writeByte(ARRAY);
+        out.writeInt(array.size());
+        for(int i = 0; i < array.size(); i++) writeValue(array.get(i));
+      } else if(value instanceof LoxMap) {
+        ids.put(value, ids.size());
+        LoxMap map = (LoxMap)value;
+        out.writeByte(MAP);
+        out.writeInt(map.size());
+
+        // forEach() can't throw checked exceptions, so collect first.
+        List<Object> entries = new ArrayList<>();
+        map.forEach((key, entry) -> {
+          entries.add(key);
+          entries.add(entry);
+        });
+        for(Object entry : entries) writeValue(entry);
+      } else if(value instanceof LoxFunction) {
+        writeFunction((LoxFunction)value);
+      } else if(value instanceof LoxClass) {
+        LoxClass klass = (LoxClass)value;
+        out.writeByte(CLASS);
+        writeString(klass.name);
+        writeValue(klass.superclass);
+        ids.put(klass, ids.size());
+        out.writeInt(klass.methods().size());
+        for(Map.Entry<String, LoxFunction> method :
+            klass.methods().entrySet()) {
+          writeString(method.getKey());
+          writeValue(method.getValue());
+        }
+      } else if(value instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance)value;
+        out.writeByte(INSTANCE);
+        writeValue(instance.klass);
+        ids.put(instance, ids.size());
+        String[] fields = instance.shape.fields();
+        out.writeInt(fields.length);
+        for(int slot = 0; slot < fields.length; slot++) {
+          writeString(fields[slot]);
+          writeValue(instance.fields[slot]);
+        }
+      } else {
+        throw cantSnapshot(value);
+      }
+    }
+
+    private void writeFunction(LoxFunction function) throws IOException {
+      int[] declaration = declarations.get(function.declaration());
+      if(declaration == null) throw cantSnapshot(function);                     // Declared by some other program
+
+      out.writeByte(FUNCTION);
+      out.writeInt(declaration[0]);
+      out.writeInt(declaration[1]);
+      out.writeBoolean(function.isInitializer());
+      out.writeBoolean(function.isMemoized());
+      writeValue(function.closure());
+      ids.put(function, ids.size());
+    }
+
+    private void writeShell(Object shell) throws IOException {
+      if(shell == globals) {
+        out.writeByte(GLOBALS);
+      } else if(modules.containsKey(shell)) {
+        out.writeByte(MODULE);
+        out.writeInt(modules.get(shell));
+      } else if(shellIds.containsKey(shell)) {
+        out.writeByte(SHELL);
+        out.writeInt(shellIds.get(shell));
+      } else if(shell instanceof Environment.Cell) {
+        out.writeByte(CELL);
+        shellIds.put(shell, shells.size());
+        shells.add(shell);
+      } else {
+        Environment environment = (Environment)shell;
+        if(environment.isTopLevel()) throw cantSnapshot(shell);                 // A record's scope, say
+        out.writeByte(ENVIRONMENT);
+        writeShell(environment.enclosing);
+        shellIds.put(shell, shells.size());
+        shells.add(shell);
+      }
+    }
+
+    private IOException cantSnapshot(Object value) {
+      String what = global != null ? "global '" + global + "'" : "a closure";
+      return new IOException("Can't snapshot the value of " + what + ": " +
+        (value instanceof Environment ? "<environment>"
+                                      : Interpreter.stringify(value)) + ".");
+    }
+
+    // writeUTF() is limited to 64K, which isn't enough for string globals.
+    private void writeString(String string) throws IOException {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static final class Reader {
+    private final DataInputStream in;
+    private final Supplier<List<Stmt>> prelude;
+    private final Interpreter interpreter;
+    private final Map<String, Object> natives = new HashMap<>();
+    private final List<Path> modulePaths = new ArrayList<>();
+    private final List<Environment> modules = new ArrayList<>();
+    private final List<List<Stmt.Function>> declarations = new ArrayList<>();   // By source, compiled when first needed
+    private final List<Object> objects = new ArrayList<>();
+    private final List<Object> shells = new ArrayList<>();
+
+    Reader(DataInputStream in, Supplier<List<Stmt>> prelude,
+        Interpreter interpreter) {
+      this.in = in;
+      this.prelude = prelude;
+      this.interpreter = interpreter;
+      for(Object value : interpreter.globals.bindings().values()) {
+        if(value instanceof NativeFunction) {
+          natives.put(((NativeFunction)value).name(), value);
+        }
+      }
+    }
+
+    boolean read(String preludeHash) throws IOException {
+      if(in.readInt() != MAGIC) return false;
+      if(!in.readUTF().equals(Lox.VERSION)) return false;
+      if(!in.readUTF().equals(preludeHash)) return false;
+
+      int moduleCount = in.readInt();
+      declarations.add(null);
+      for(int i = 0; i < moduleCount; i++) {
+        Path path = Paths.get(readString());
+        if(!in.readUTF().equals(hash(Files.readAllBytes(path)))) return false;  // The module changed since
+        modulePaths.add(path);
+        Environment module = new Environment(interpreter.globals);
+        module.markTopLevel();
+        modules.add(module);
+        declarations.add(null);
+      }
+
+      // Read everything before touching the interpreter.
+      Map<String, Object> globals = readBindings();
+      List<Map<String, Object>> moduleBindings = new ArrayList<>();
+      for(int i = 0; i < moduleCount; i++) moduleBindings.add(readBindings());
+      for(int i = 0; i < shells.size(); i++) {
+        Object shell = shells.get(i);
+        if(shell instanceof Environment) {
+          readBindings().forEach(((Environment)shell)::bind);
+        } else {
+          ((Environment.Cell)shell).value = readValue();
+        }
+      }
+
+      for(int i = 0; i < moduleCount; i++) {
+        moduleBindings.get(i).forEach(modules.get(i)::bind);
+        interpreter.addModule(modulePaths.get(i), modules.get(i));
+      }
+      globals.forEach(interpreter.globals::define);
+      return true;
+    }
+
+    private Map<String, Object> readBindings() throws IOException {
+      Map<String, Object> bindings = new HashMap<>();
+      int count = in.readInt();
+      for(int i = 0; i < count; i++) {
+        String name = readString();
+        bindings.put(name, readValue());
+      }
+      return bindings;
+    }
+
+    private Object readValue() throws IOException {
+      byte tag = in.readByte();
+      switch(tag) {
+        case NIL: return null;
+        case TRUE: return true;
+        case FALSE: return false;
+        case LONG: return in.readLong();
+        case DOUBLE: return in.readDouble();
+        case STRING: return readString();
+        case NATIVE: {
+          String name = readString();
+          Object function = natives.get(name);
+          if(function == null) {
+            throw new IOException("Unknown native '" + name + "'.");
+          }
+          return function;
+        }
+        case REF: return objects.get(in.readInt());
+        case ARRAY: {
+          LoxArray array = new LoxArray();
+          objects.add(array);                                                   // Register before reading elements for cycles
+          int size = in.readInt();
+          for(int i = 0; i < size; i++) array.add(readValue());
+          return array;
+        }
+        case MAP: {
+          LoxMap map = new LoxMap();
+          objects.add(map);
+          int size = in.readInt();
+          for(int i = 0; i < size; i++) {
+            Object key = readValue();
+            map.put(key, readValue());
+          }
+          return map;
+        }
+        case FUNCTION: {
+          Stmt.Function declaration = declaration(in.readInt(), in.readInt());
+          boolean isInitializer = in.readBoolean();
+          Memo memo = in.readBoolean() ?
+            interpreter.memos.forDeclaration(declaration) : null;
+          Environment closure = (Environment)readValue();
+          LoxFunction function =
+            new LoxFunction(declaration, closure, isInitializer, memo);
+          objects.add(function);
+          return function;
+        }
+        case CLASS: {
+          String name = readString();
+          LoxClass superclass = (LoxClass)readValue();
+          Map<String, LoxFunction> methods = new HashMap<>();
+          LoxClass klass = new LoxClass(name, superclass, methods);
+          objects.add(klass);
+          int count = in.readInt();
+          for(int i = 0; i < count; i++) {
+            String method = readString();
+            methods.put(method, (LoxFunction)readValue());
+          }
+          return klass;
+        }
+        case INSTANCE: {
+          LoxInstance instance = new LoxInstance((LoxClass)readValue());
+          objects.add(instance);
+          int count = in.readInt();
+          for(int slot = 0; slot < count; slot++) {
+            Shape next = instance.shape.with(readString());
+            instance.store(next, slot, readValue());
+          }
+          return instance;
+        }
+        case GLOBALS: return interpreter.globals;
+        case MODULE: return modules.get(in.readInt());
+        case SHELL: return shells.get(in.readInt());
+        case CELL: {
+          Environment.Cell cell = new Environment.Cell(null);
+          shells.add(cell);
+          return cell;
+        }
+        case ENVIRONMENT: {
+          Environment environment = new Environment((Environment)readValue());
+          shells.add(environment);
+          return environment;
+        }
+        default:
+          throw new IOException("Bad value tag " + tag + ".");
+      }
+    }
+
+    private Stmt.Function declaration(int source, int number)
+        throws IOException {
+      if(declarations.get(source) == null) {
+        List<Stmt> statements;
+        if(source == 0) {
+          statements = prelude.get();
+        } else {
+          ModuleLoader.Module module =
+            ModuleLoader.load(modulePaths.get(source - 1));
+          if(module.hadError()) throw new IOException("Module has errors.");
+          statements = module.statements;
+        }
+        declarations.set(source, Snapshot.declarations(statements));
+      }
+      return declarations.get(source).get(number);
+    }
+
+    // The length comes from the file, so it doesn't size an allocation up
+    // front: readNBytes() only allocates as the bytes actually arrive.
+    private String readString() throws IOException {
+      int length = in.readInt();
+      if(length < 0) throw new IOException("Negative string length.");
+      byte[] bytes = in.readNBytes(length);
+      if(bytes.length != length) throw new EOFException();
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+}
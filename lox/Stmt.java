@@ -2,17 +2,54 @@ package lox;
 
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt permits
+    Stmt.Block,
+    Stmt.Break,
+    Stmt.Class,
+    Stmt.Continue,
+    Stmt.Expression,
+    Stmt.Function,
+    Stmt.If,
+    Stmt.Import,
+    Stmt.Print,
+    Stmt.Return,
+    Stmt.Traced,
+    Stmt.Var,
+    Stmt.While {
   interface Visitor<R> {
     R visitBlockStmt(Block stmt);
+    R visitBreakStmt(Break stmt);
+    R visitClassStmt(Class stmt);
+    R visitContinueStmt(Continue stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
+    R visitImportStmt(Import stmt);
     R visitPrintStmt(Print stmt);
+    R visitReturnStmt(Return stmt);
+    R visitTracedStmt(Traced stmt);
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
   }
-  static class Block extends Stmt {
-    Block(List<Stmt> statements) {
+
+  static final int BLOCK = 0;
+  static final int BREAK = 1;
+  static final int CLASS = 2;
+  static final int CONTINUE = 3;
+  static final int EXPRESSION = 4;
+  static final int FUNCTION = 5;
+  static final int IF = 6;
+  static final int IMPORT = 7;
+  static final int PRINT = 8;
+  static final int RETURN = 9;
+  static final int TRACED = 10;
+  static final int VAR = 11;
+  static final int WHILE = 12;
+  static final int KIND_COUNT = 13;
+  static final class Block extends Stmt {
+    Block(int line, List<Stmt> statements) {
+      super(BLOCK);
+      this.line = line;
       this.statements = statements;
     }
 
@@ -21,11 +58,61 @@ abstract class Stmt {
       return visitor.visitBlockStmt(this);
     }
 
+    final int line;
     final List<Stmt> statements;
   }
-  static class Expression extends Stmt {
-    Expression(Expr expression) {
+  static final class Break extends Stmt {
+    Break(int line) {
+      super(BREAK);
+      this.line = line;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitBreakStmt(this);
+    }
+
+    final int line;
+  }
+  static final class Class extends Stmt {
+    Class(String name, int line, Expr.Variable superclass, List<Stmt.Function> methods) {
+      super(CLASS);
+      this.name = name;
+      this.line = line;
+      this.superclass = superclass;
+      this.methods = methods;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitClassStmt(this);
+    }
+
+    final String name;
+    final int line;
+    final Expr.Variable superclass;
+    final List<Stmt.Function> methods;
+
+    boolean cell;
+  }
+  static final class Continue extends Stmt {
+    Continue(int line) {
+      super(CONTINUE);
+      this.line = line;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitContinueStmt(this);
+    }
+
+    final int line;
+  }
+  static final class Expression extends Stmt {
+    Expression(Expr expression, int line) {
+      super(EXPRESSION);
       this.expression = expression;
+      this.line = line;
     }
 
     @Override
@@ -34,10 +121,38 @@ abstract class Stmt {
     }
 
     final Expr expression;
+    final int line;
+  }
+  static final class Function extends Stmt {
+    Function(String name, int line, List<String> params, List<Stmt> body) {
+      super(FUNCTION);
+      this.name = name;
+      this.line = line;
+      this.params = params;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitFunctionStmt(this);
+    }
+
+    final String name;
+    final int line;
+    final List<String> params;
+    final List<Stmt> body;
+
+    boolean cell;
+    List<String> captures;
+    boolean[] paramCells;
+    String impurity;
+    List<String> globals;
   }
-  static class If extends Stmt {
-    If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+  static final class If extends Stmt {
+    If(Expr condition, int line, Stmt thenBranch, Stmt elseBranch) {
+      super(IF);
       this.condition = condition;
+      this.line = line;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
     }
@@ -48,12 +163,30 @@ abstract class Stmt {
     }
 
     final Expr condition;
+    final int line;
     final Stmt thenBranch;
     final Stmt elseBranch;
   }
-  static class Print extends Stmt {
-    Print(Expr expression) {
+  static final class Import extends Stmt {
+    Import(String path, int line) {
+      super(IMPORT);
+      this.path = path;
+      this.line = line;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    final String path;
+    final int line;
+  }
+  static final class Print extends Stmt {
+    Print(Expr expression, int line) {
+      super(PRINT);
       this.expression = expression;
+      this.line = line;
     }
 
     @Override
@@ -62,10 +195,43 @@ abstract class Stmt {
     }
 
     final Expr expression;
+    final int line;
   }
-  static class Var extends Stmt {
-    Var(Token name, Expr initializer) {
+  static final class Return extends Stmt {
+    Return(int line, Expr value) {
+      super(RETURN);
+      this.line = line;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitReturnStmt(this);
+    }
+
+    final int line;
+    final Expr value;
+  }
+  static final class Traced extends Stmt {
+    Traced(Stmt statement, int line) {
+      super(TRACED);
+      this.statement = statement;
+      this.line = line;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitTracedStmt(this);
+    }
+
+    final Stmt statement;
+    final int line;
+  }
+  static final class Var extends Stmt {
+    Var(String name, int line, Expr initializer) {
+      super(VAR);
       this.name = name;
+      this.line = line;
       this.initializer = initializer;
     }
 
@@ -74,13 +240,19 @@ abstract class Stmt {
       return visitor.visitVarStmt(this);
     }
 
-    final Token name;
+    final String name;
+    final int line;
     final Expr initializer;
+
+    boolean cell;
   }
-  static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+  static final class While extends Stmt {
+    While(Expr condition, int line, Stmt body, Expr increment) {
+      super(WHILE);
       this.condition = condition;
+      this.line = line;
       this.body = body;
+      this.increment = increment;
     }
 
     @Override
@@ -89,8 +261,36 @@ abstract class Stmt {
     }
 
     final Expr condition;
+    final int line;
     final Stmt body;
+    final Expr increment;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
+
+  final int kind;
+
+  Stmt(int kind) {
+    this.kind = kind;
+  }
+
+  // Same as stmt.accept(visitor), but through a switch on the kind tag
+  static <R> R dispatch(Stmt stmt, Visitor<R> visitor) {
+    switch(stmt.kind) {
+      case BLOCK: return visitor.visitBlockStmt((Block)stmt);
+      case BREAK: return visitor.visitBreakStmt((Break)stmt);
+      case CLASS: return visitor.visitClassStmt((Class)stmt);
+      case CONTINUE: return visitor.visitContinueStmt((Continue)stmt);
+      case EXPRESSION: return visitor.visitExpressionStmt((Expression)stmt);
+      case FUNCTION: return visitor.visitFunctionStmt((Function)stmt);
+      case IF: return visitor.visitIfStmt((If)stmt);
+      case IMPORT: return visitor.visitImportStmt((Import)stmt);
+      case PRINT: return visitor.visitPrintStmt((Print)stmt);
+      case RETURN: return visitor.visitReturnStmt((Return)stmt);
+      case TRACED: return visitor.visitTracedStmt((Traced)stmt);
+      case VAR: return visitor.visitVarStmt((Var)stmt);
+      case WHILE: return visitor.visitWhileStmt((While)stmt);
+    }
+    throw new AssertionError(stmt.kind);
+  }
 }
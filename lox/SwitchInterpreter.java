@@ -0,0 +1,37 @@
+package lox;
+
+// Interpreter that dispatches with a switch on each node's kind tag instead
+// of going through accept(). Every call it makes lands on a known visit method
+// of this class, which the JIT can inline, where accept() is a megamorphic
+// virtual call followed by an interface call back into the interpreter.
+class SwitchInterpreter extends Interpreter {
+  SwitchInterpreter() {}
+
+  private SwitchInterpreter(Interpreter parent) {
+    super(parent);
+  }
+
+  private SwitchInterpreter(Interpreter parent, Environment globals) {
+    super(parent, globals);
+  }
+
+  @Override
+  Interpreter worker() {
+    return new SwitchInterpreter(this);
+  }
+
+  @Override
+  Interpreter task(Environment globals) {
+    return new SwitchInterpreter(this, globals);
+  }
+
+  @Override
+  Object evaluate(Expr expr) {
+    return Expr.dispatch(expr, this);
+  }
+
+  @Override
+  Completion execute(Stmt stmt) {
+    return Stmt.dispatch(stmt, this);
+  }
+}
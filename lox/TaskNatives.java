@@ -0,0 +1,179 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Natives for actor-style concurrency: tasks that share nothing mutable and
+// talk through bounded channels.
+//
+//   spawn(fn, argument)   -> task running fn(argument) concurrently
+//   join(task)            -> what fn returned, once it has
+//   channel(capacity)     -> channel holding up to `capacity` values
+//   send(channel, value)     blocks while the channel is full
+//   receive(channel)      -> next value, blocking while it is empty
+//   select(channels)      -> [index, value] from the first of an array of
+//                            channels to have a value
+//
+// A task runs in a copy of the spawning task's world (see Isolate) with an
+// Interpreter of its own, so it has its own environments and can't see what
+// other tasks change; all of them charge the one memory account. The
+// callable, its argument, values sent and values returned all have to be
+// immutable, and so do the top-level variables the callable uses.
+// A task that fails reports its runtime error right away; joining it fails
+// too. Tasks don't keep the program alive: join the ones that must finish.
+//
+// Tasks run on virtual threads when the JVM has them (21 and later), so
+// thousands of tasks blocked on I/O or channels are cheap. On older JVMs
+// each task gets a daemon platform thread instead.
+class TaskNatives {
+  private static final ThreadFactory threads = threadFactory();
+
+  private TaskNatives() {}
+
+  static void define(Environment globals) {
+    new NativeFunction("spawn", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Isolate isolate = new Isolate(arguments);
+        Object function = isolate.copy(arguments.get(0));
+        if(!(function instanceof LoxFunction) ||
+            ((LoxFunction)function).arity() != 1) {
+          throw new RuntimeError(
+            "Can only spawn an immutable function taking 1 argument.");
+        }
+        String global = isolate.unshareableGlobal();
+        if(global != null) {
+          throw new RuntimeError("Can't spawn a function that uses '" + global +
+            "', which holds a mutable value.");
+        }
+        Object argument = isolate.copy(arguments.get(1));
+        if(argument == Isolate.UNSHAREABLE) {
+          throw new RuntimeError("Can only pass immutable values to a task.");
+        }
+
+        Interpreter task = interpreter.task(
+          isolate.copyEnvironment(interpreter.globals));
+        LoxTask handle = new LoxTask();
+        threads.newThread(() ->
+          handle.run(task, (LoxFunction)function, argument)).start();
+        return handle;
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("join", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        if(!(arguments.get(0) instanceof LoxTask)) {
+          throw new RuntimeError("Argument must be a task.");
+        }
+        try {
+          return ((LoxTask)arguments.get(0)).join();
+        } catch(InterruptedException error) {
+          throw interrupted();
+        }
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("channel", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object capacity = Numbers.integral(arguments.get(0));
+        if(!(capacity instanceof Long) || (long)capacity < 1 ||
+            (long)capacity > Integer.MAX_VALUE - 8) {
+          throw new RuntimeError("Channel capacity must be a positive integer.");
+        }
+        LoxChannel channel = new LoxChannel((int)(long)capacity);
+        ArrayNatives.charge(interpreter, 16 + 8L * channel.capacity());
+        return channel;
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("send", 2) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxChannel channel = checkChannel(arguments.get(0));
+        Object value = new Isolate().copy(arguments.get(1));
+        if(value == Isolate.UNSHAREABLE) {
+          throw new RuntimeError("Can only send immutable values.");
+        }
+        try {
+          channel.send(value);
+        } catch(InterruptedException error) {
+          throw interrupted();
+        }
+        return null;
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("receive", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        LoxChannel channel = checkChannel(arguments.get(0));
+        try {
+          return channel.receive();
+        } catch(InterruptedException error) {
+          throw interrupted();
+        }
+      }
+    }.defineIn(globals);
+
+    new NativeFunction("select", 1) {
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        if(!(arguments.get(0) instanceof LoxArray) ||
+            ((LoxArray)arguments.get(0)).size() == 0) {
+          throw new RuntimeError("Argument must be a non-empty array of channels.");
+        }
+        LoxArray array = (LoxArray)arguments.get(0);
+        List<LoxChannel> channels = new ArrayList<>(array.size());
+        for(int i = 0; i < array.size(); i++) {
+          channels.add(checkChannel(array.get(i)));
+        }
+
+        Object[] received = new Object[1];
+        int index;
+        try {
+          index = LoxChannel.select(channels, received);
+        } catch(InterruptedException error) {
+          throw interrupted();
+        }
+        LoxArray result = new LoxArray();
+        result.owner = interpreter.owner();
+        result.add((long)index);
+        result.add(received[0]);
+        ArrayNatives.charge(interpreter, result.footprint());
+        return result;
+      }
+    }.defineIn(globals);
+  }
+
+  // Thread.ofVirtual().factory() if this JVM has it. Looked up reflectively
+  // so the interpreter still builds and runs on 17.
+  private static ThreadFactory threadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory)Class.forName("java.lang.Thread$Builder")
+        .getMethod("factory").invoke(builder);
+    } catch(ReflectiveOperationException | RuntimeException error) {
+      AtomicInteger count = new AtomicInteger();
+      return runnable -> {
+        Thread thread = new Thread(runnable,
+          "lox-task-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
+
+  private static LoxChannel checkChannel(Object value) {
+    if(value instanceof LoxChannel) return (LoxChannel)value;
+    throw new RuntimeError("Argument must be a channel.");
+  }
+
+  private static RuntimeError interrupted() {
+    Thread.currentThread().interrupt();
+    return new RuntimeError("Interrupted while waiting.");
+  }
+}
@@ -0,0 +1,399 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Flow-sensitive pass that works out which variables are guaranteed to hold a
+// number (or a string) at each point of the program. When both operands of a
+// Binary or Unary node are proven, the node's operandType is set and the
+// interpreter skips its runtime type checks. Anything the pass can't prove is
+// left alone, so those sites keep the usual checks and error messages.
+class TypeInference implements Expr.Visitor<TypeInference.Type>,
+                               Stmt.Visitor<Void> {
+  enum Type { NUMBER, STRING, BOOLEAN, NIL, ANY }
+
+  // One map per block that is open at this point, innermost last. Variables
+  // that aren't in any of them (defined by an earlier REPL line or an import)
+  // are treated as ANY.
+  private List<Map<String, Type>> scopes = new ArrayList<>();
+
+  // States seen at `break` and `continue` statements of the innermost loop.
+  private List<List<Map<String, Type>>> breakStates = null;
+  private List<List<Map<String, Type>>> continueStates = null;
+
+  TypeInference() {
+    scopes.add(new HashMap<>());
+  }
+
+  void analyze(List<Stmt> statements) {
+    for(Stmt statement : statements) {
+      if(statement != null) statement.accept(this);                             // null means the statement had a parse error
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scopes.add(new HashMap<>());
+    analyze(stmt.statements);
+    scopes.remove(scopes.size() - 1);
+    return null;
+  }
+
+  @Override
+  public Void visitBreakStmt(Stmt.Break stmt) {
+    breakStates.add(copy(scopes));
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    if(stmt.superclass != null) stmt.superclass.accept(this);
+    scopes.get(scopes.size() - 1).put(stmt.name, Type.ANY);
+    for(Stmt.Function method : stmt.methods) {
+      analyzeFunction(method);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitContinueStmt(Stmt.Continue stmt) {
+    continueStates.add(copy(scopes));
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    stmt.expression.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    scopes.get(scopes.size() - 1).put(stmt.name, Type.ANY);
+    analyzeFunction(stmt);
+    return null;
+  }
+
+  // A body can run whenever the function is called, so it starts out knowing
+  // nothing about the variables around it or about its parameters.
+  private void analyzeFunction(Stmt.Function function) {
+    List<Map<String, Type>> enclosingScopes = scopes;
+    List<List<Map<String, Type>>> enclosingBreaks = breakStates;
+    List<List<Map<String, Type>>> enclosingContinues = continueStates;
+
+    scopes = new ArrayList<>();
+    Map<String, Type> parameters = new HashMap<>();
+    for(String param : function.params) parameters.put(param, Type.ANY);
+    scopes.add(parameters);
+    analyze(function.body);
+
+    scopes = enclosingScopes;
+    breakStates = enclosingBreaks;
+    continueStates = enclosingContinues;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    stmt.condition.accept(this);
+
+    List<Map<String, Type>> before = copy(scopes);
+    stmt.thenBranch.accept(this);
+    List<Map<String, Type>> afterThen = scopes;
+
+    scopes = before;
+    if(stmt.elseBranch != null) stmt.elseBranch.accept(this);
+    scopes = join(afterThen, scopes);                                           // Either branch may have run
+    return null;
+  }
+
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    forgetAll();                                                                // The module can (re)define any name
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    stmt.expression.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if(stmt.value != null) stmt.value.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitTracedStmt(Stmt.Traced stmt) {
+    stmt.statement.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    Type type = Type.NIL;
+    if(stmt.initializer != null) type = stmt.initializer.accept(this);
+    scopes.get(scopes.size() - 1).put(stmt.name, type);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    // Run the body until the types at the top of the loop stop changing. The
+    // lattice is tiny, so this settles after a couple of rounds. Every round
+    // overwrites the annotations, so the last (stable) one wins.
+    // Code after a break or continue is unreachable, so carrying on with its
+    // state is safe; it only makes the joins more conservative.
+    List<List<Map<String, Type>>> enclosingBreaks = breakStates;
+    List<List<Map<String, Type>>> enclosingContinues = continueStates;
+
+    List<Map<String, Type>> entry = copy(scopes);
+    while(true) {
+      List<Map<String, Type>> top = copy(scopes);
+      breakStates = new ArrayList<>();
+      continueStates = new ArrayList<>();
+
+      stmt.condition.accept(this);
+      stmt.body.accept(this);
+      for(List<Map<String, Type>> state : continueStates) {
+        scopes = join(scopes, state);
+      }
+      if(stmt.increment != null) stmt.increment.accept(this);
+
+      scopes = join(entry, scopes);
+      if(scopes.equals(top)) break;
+    }
+
+    stmt.condition.accept(this);                                                // The loop exits after a failed check
+    for(List<Map<String, Type>> state : breakStates) {                          // ...or at a break
+      scopes = join(scopes, state);
+    }
+
+    breakStates = enclosingBreaks;
+    continueStates = enclosingContinues;
+    return null;
+  }
+
+  @Override
+  public Type visitAssignExpr(Expr.Assign expr) {
+    return assign(expr.name, expr.value.accept(this));
+  }
+
+  private Type assign(String name, Type type) {
+    for(int i = scopes.size() - 1; i >= 0; i--) {
+      Map<String, Type> scope = scopes.get(i);
+      if(scope.containsKey(name)) {
+        scope.put(name, type);
+        break;
+      }
+    }
+    return type;
+  }
+
+  @Override
+  public Type visitBinaryExpr(Expr.Binary expr) {
+    Type left = expr.left.accept(this);
+    Type right = expr.right.accept(this);
+    expr.operandType = operandType(expr.operator, left, right);
+    return resultType(expr.operator, left, right);
+  }
+
+  // What a binary operator's operands are proven to be, or null if they
+  // still have to be checked.
+  private static Type operandType(TokenType operator, Type left, Type right) {
+    switch(operator) {
+      case BANG_EQUAL:
+      case EQUAL_EQUAL:
+        return null;                                                            // Equality never checks its operands
+      case PLUS:
+        if(left == Type.STRING && right == Type.STRING) return Type.STRING;
+        break;
+    }
+    return left == Type.NUMBER && right == Type.NUMBER ? Type.NUMBER : null;
+  }
+
+  private static Type resultType(TokenType operator, Type left, Type right) {
+    switch(operator) {
+      case BANG_EQUAL:
+      case EQUAL_EQUAL:
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        return Type.BOOLEAN;
+      case PLUS:
+        if(left == Type.NUMBER && right == Type.NUMBER) return Type.NUMBER;
+        if(left == Type.STRING && right == Type.STRING) return Type.STRING;
+        return Type.ANY;
+      default:
+        return Type.NUMBER;                                                     // If it didn't throw, it's a number
+    }
+  }
+
+  @Override
+  public Type visitCompareExpr(Expr.Compare expr) {
+    Type left = lookup(expr.name);
+    Type right = expr.other != null ? lookup(expr.other) : typeOf(expr.constant);
+    expr.operandType = operandType(expr.operator, left, right);
+    return Type.BOOLEAN;
+  }
+
+  @Override
+  public Type visitCompoundExpr(Expr.Compound expr) {
+    Type left = lookup(expr.name);
+    Type right = expr.value.accept(this);
+    expr.operandType = operandType(expr.operator, left, right);
+    return assign(expr.name, resultType(expr.operator, left, right));
+  }
+
+  @Override
+  public Type visitIncrementExpr(Expr.Increment expr) {
+    Type left = lookup(expr.name);
+    Type right = typeOf(expr.amount);
+    expr.operandType = operandType(expr.operator, left, right);
+    return assign(expr.name, resultType(expr.operator, left, right));
+  }
+
+  @Override
+  public Type visitCallExpr(Expr.Call expr) {
+    expr.callee.accept(this);
+    for(Expr argument : expr.arguments) {
+      argument.accept(this);
+    }
+    forgetAll();                                                                // We don't know what the callee assigns
+    return Type.ANY;
+  }
+
+  @Override
+  public Type visitGetExpr(Expr.Get expr) {
+    expr.object.accept(this);
+    return Type.ANY;
+  }
+
+  @Override
+  public Type visitGroupingExpr(Expr.Grouping expr) {
+    return expr.expression.accept(this);
+  }
+
+  @Override
+  public Type visitIndexExpr(Expr.Index expr) {
+    expr.object.accept(this);
+    expr.index.accept(this);
+    return Type.ANY;
+  }
+
+  @Override
+  public Type visitLiteralExpr(Expr.Literal expr) {
+    return typeOf(expr.value);
+  }
+
+  @Override
+  public Type visitLogicalExpr(Expr.Logical expr) {
+    Type left = expr.left.accept(this);
+
+    List<Map<String, Type>> before = copy(scopes);
+    Type right = expr.right.accept(this);
+    scopes = join(before, scopes);                                              // The right side may not run
+
+    return left == right ? left : Type.ANY;
+  }
+
+  @Override
+  public Type visitSetExpr(Expr.Set expr) {
+    expr.object.accept(this);
+    return expr.value.accept(this);
+  }
+
+  @Override
+  public Type visitSetIndexExpr(Expr.SetIndex expr) {
+    expr.object.accept(this);
+    expr.index.accept(this);
+    return expr.value.accept(this);
+  }
+
+  @Override
+  public Type visitSuperExpr(Expr.Super expr) {
+    return Type.ANY;
+  }
+
+  @Override
+  public Type visitThisExpr(Expr.This expr) {
+    return Type.ANY;
+  }
+
+  @Override
+  public Type visitTracedCallExpr(Expr.TracedCall expr) {
+    return visitCallExpr(expr.call);
+  }
+
+  @Override
+  public Type visitUnaryExpr(Expr.Unary expr) {
+    Type right = expr.right.accept(this);
+
+    if(expr.operator == TokenType.BANG) {
+      expr.operandType = null;
+      return Type.BOOLEAN;
+    }
+
+    expr.operandType = right == Type.NUMBER ? Type.NUMBER : null;
+    return Type.NUMBER;
+  }
+
+  @Override
+  public Type visitVariableExpr(Expr.Variable expr) {
+    return lookup(expr.name);
+  }
+
+  private Type lookup(String name) {
+    for(int i = scopes.size() - 1; i >= 0; i--) {
+      Type type = scopes.get(i).get(name);
+      if(type != null) return type;
+    }
+    return Type.ANY;
+  }
+
+  static Type typeOf(Object value) {
+    if(value == null) return Type.NIL;
+    if(Numbers.isNumber(value)) return Type.NUMBER;
+    if(value instanceof String) return Type.STRING;
+    if(value instanceof Boolean) return Type.BOOLEAN;
+    return Type.ANY;
+  }
+
+  private void forgetAll() {
+    for(Map<String, Type> scope : scopes) {
+      scope.replaceAll((name, type) -> Type.ANY);
+    }
+  }
+
+  private static List<Map<String, Type>> copy(List<Map<String, Type>> scopes) {
+    List<Map<String, Type>> copy = new ArrayList<>();
+    for(Map<String, Type> scope : scopes) {
+      copy.add(new HashMap<>(scope));
+    }
+    return copy;
+  }
+
+  // Both lists have the same blocks open. A variable keeps its type only if it
+  // has it on both paths; one declared on just one path becomes ANY.
+  private static List<Map<String, Type>> join(
+      List<Map<String, Type>> a, List<Map<String, Type>> b) {
+    List<Map<String, Type>> joined = new ArrayList<>();
+    for(int i = 0; i < a.size(); i++) {
+      Map<String, Type> scope = new HashMap<>(a.get(i));
+      for(Map.Entry<String, Type> entry : b.get(i).entrySet()) {
+        Type other = scope.get(entry.getKey());
+        scope.put(entry.getKey(),
+          other == entry.getValue() ? other : Type.ANY);
+      }
+      for(Map.Entry<String, Type> entry : scope.entrySet()) {
+        if(!b.get(i).containsKey(entry.getKey())) entry.setValue(Type.ANY);
+      }
+      joined.add(scope);
+    }
+    return joined;
+  }
+}
@@ -2,6 +2,7 @@ package tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -12,24 +13,53 @@ public class GenerateAst {
       System.exit(64);
     }
     String outputDir = args[0];
-    defineAst(outputDir, "Expr", Arrays.asList(
-      "Assign   : Token name, Expr value",
-      "Binary   : Expr left, Token operator, Expr right",                       // Defining types and fields
-      "Call     : Expr callee, Token paren, List<Expr> arguments",
+    defineAst(outputDir, "Expr", Arrays.asList(                                 // Nodes keep an operator code and a line,
+      "Assign   : String name, int line, Expr value",                           // never the Token itself
+      "Binary   : Expr left, TokenType operator, int line, Expr right" +        // Defining types and fields
+                " | TypeInference.Type operandType",                            // Fields after | are set by later passes
+      "Call     : Expr callee, int line, List<Expr> arguments",
+      "Compare  : String name, int nameLine, TokenType operator, int line," +   // Compare, Compound and Increment are fused
+                " String other, int otherLine, Object constant" +               // nodes, see Fusion
+                " | TypeInference.Type operandType",
+      "Compound : String name, int line, int nameLine, TokenType operator," +
+                " int operatorLine, Expr value | TypeInference.Type operandType",
+      "Get      : Expr object, String name, int line | Shape.Cache cache",      // cache is the site's inline cache
       "Grouping : Expr expression", 
+      "Increment : String name, int line, int nameLine, TokenType operator," +
+                 " int operatorLine, Object amount" +
+                 " | TypeInference.Type operandType",
+      "Index    : Expr object, int line, Expr index",
       "Literal  : Object value",
-      "Logical  : Expr left, Token operator, Expr right",
-      "Unary    : Token operator, Expr right",
-      "Variable : Token name"
+      "Logical  : Expr left, TokenType operator, Expr right",
+      "Set      : Expr object, String name, int line, Expr value" +
+                " | Shape.Cache cache",
+      "SetIndex : Expr object, int line, Expr index, Expr value",
+      "Super    : String method, int line",
+      "This     : int line",
+      "TracedCall : Call call",                                                 // Only in instrumented trees, see Instrumenter
+      "Unary    : TokenType operator, int line, Expr right" +
+                " | TypeInference.Type operandType",
+      "Variable : String name, int line"
     ));
 
     defineAst(outputDir, "Stmt", Arrays.asList(
-      "Block      : List<Stmt> statements",
-      "Expression : Expr expression",
-      "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-      "Print      : Expr expression",
-      "Var        : Token name, Expr initializer",
-      "While      : Expr condition, Stmt body"
+      "Block      : int line, List<Stmt> statements",
+      "Break      : int line",
+      "Class      : String name, int line, Expr.Variable superclass," +
+                  " List<Stmt.Function> methods | boolean cell",                // cell: see Resolver
+      "Continue   : int line",
+      "Expression : Expr expression, int line",
+      "Function   : String name, int line, List<String> params," +
+                  " List<Stmt> body | boolean cell, List<String> captures," +
+                  " boolean[] paramCells, String impurity," +                   // impurity, globals: see Memo
+                  " List<String> globals",
+      "If         : Expr condition, int line, Stmt thenBranch, Stmt elseBranch",
+      "Import     : String path, int line",
+      "Print      : Expr expression, int line",
+      "Return     : int line, Expr value",
+      "Traced     : Stmt statement, int line",                                  // Only in instrumented trees
+      "Var        : String name, int line, Expr initializer | boolean cell",
+      "While      : Expr condition, int line, Stmt body, Expr increment"
     ));
   }
 
@@ -42,21 +72,43 @@ public class GenerateAst {
     writer.println();
     writer.println("import java.util.List;");
     writer.println();
-    writer.println("abstract class " + baseName + " {");
+    // Sealed, so a switch over `kind` (or a type pattern) covers every node
+    List<String> classNames = new ArrayList<>();
+    for(String type : types) {
+      classNames.add(baseName + "." + type.split(":")[0].trim());
+    }
+    writer.println("abstract sealed class " + baseName + " permits");
+    writer.println("    " + String.join(",\n    ", classNames) + " {");
 
     defineVisitor(writer, baseName, types);
+    defineKinds(writer, baseName, types);
 
     // AST subclasses
     for(String type : types) {
       String className = type.split(":")[0].trim();                             // String manip only runs for this specific implementation :(
       String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+      String annotations = null;
+      if(fields.contains("|")) {
+        annotations = fields.split("\\|")[1].trim();
+        fields = fields.split("\\|")[0].trim();
+      }
+      defineType(writer, baseName, className, fields, annotations);
     }
 
     // The base accept() method
     writer.println();
     writer.println("  abstract <R> R accept(Visitor<R> visitor);");
 
+    // The node's kind tag, fixed by each subclass
+    writer.println();
+    writer.println("  final int kind;");
+    writer.println();
+    writer.println("  " + baseName + "(int kind) {");
+    writer.println("    this.kind = kind;");
+    writer.println("  }");
+
+    defineDispatch(writer, baseName, types);
+
     writer.println("}");
     writer.close();
   }
@@ -74,12 +126,47 @@ public class GenerateAst {
       writer.println("  }");
     }
 
+  private static void defineKinds(
+    PrintWriter writer, String baseName, List<String> types) {
+    // Dense node-kind tags, one per subclass in declaration order, for
+    // dispatching with a switch instead of accept()
+    writer.println();
+    for(int i = 0; i < types.size(); i++) {
+      String typeName = types.get(i).split(":")[0].trim();
+      writer.println("  static final int " + kindName(typeName) + " = " + i + ";");
+    }
+    writer.println("  static final int KIND_COUNT = " + types.size() + ";");
+  }
+
+  private static void defineDispatch(
+    PrintWriter writer, String baseName, List<String> types) {
+    String param = baseName.toLowerCase();
+    writer.println();
+    writer.println("  // Same as " + param + ".accept(visitor), but through a switch on the kind tag");
+    writer.println("  static <R> R dispatch(" + baseName + " " + param + ", Visitor<R> visitor) {");
+    writer.println("    switch(" + param + ".kind) {");
+    for(String type : types) {
+      String typeName = type.split(":")[0].trim();
+      writer.println("      case " + kindName(typeName) + ": return visitor.visit" +
+        typeName + baseName + "((" + typeName + ")" + param + ");");
+    }
+    writer.println("    }");
+    writer.println("    throw new AssertionError(" + param + ".kind);");
+    writer.println("  }");
+  }
+
+  static String kindName(String typeName) {                                     // SetIndex -> SET_INDEX
+    return typeName.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+  }
+
   private static void defineType(
-    PrintWriter writer, String baseName, String className, String fieldList) {
+    PrintWriter writer, String baseName, String className, String fieldList,
+    String annotationList) {
     writer.println(
-      "  static class " + className + " extends " + baseName + " {");
+      "  static final class " + className + " extends " + baseName + " {");
 
     writer.println("    " + className + "(" + fieldList + ") {");               // Constructor
+    writer.println("      super(" + kindName(className) + ");");
 
     String[] fields = fieldList.split(", ");                                    // Store parameters in fields
     for(String field : fields) {
@@ -101,6 +188,13 @@ public class GenerateAst {
       writer.println("    final " + field + ";");
     }
 
+    if(annotationList != null) {                                                // Mutable fields, not in the constructor
+      writer.println();
+      for(String field : annotationList.split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
+
     writer.println("  }");
   }
 }